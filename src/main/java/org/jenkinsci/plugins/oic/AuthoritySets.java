@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.security.SecurityRealm;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Interned authorities and authority sets.
+ * Users commonly belong to hundreds of groups, most of them shared with other users, so each authority is only
+ * allocated once and users with the same groups share the same immutable set, which answers {@code contains} with a
+ * hash lookup rather than by scanning a list.
+ */
+final class AuthoritySets {
+
+    /**
+     * Maximum number of interned authorities and sets, the pools are emptied when reached.
+     * This is only a safety net against unbounded growth, they are far more than an organisation has groups.
+     */
+    private static final int MAX_AUTHORITIES = 100_000;
+
+    private static final int MAX_SETS = 10_000;
+
+    private static final Map<String, GrantedAuthority> AUTHORITIES = new ConcurrentHashMap<>();
+
+    private static final Map<Set<GrantedAuthority>, Set<GrantedAuthority>> SETS = new ConcurrentHashMap<>();
+
+    private AuthoritySets() {}
+
+    /**
+     * @return the shared instance of the authority with the given name.
+     */
+    @NonNull
+    static GrantedAuthority intern(@NonNull String authority) {
+        if (SecurityRealm.AUTHENTICATED_AUTHORITY2.getAuthority().equals(authority)) {
+            return SecurityRealm.AUTHENTICATED_AUTHORITY2;
+        }
+        GrantedAuthority interned = AUTHORITIES.get(authority);
+        if (interned == null) {
+            if (AUTHORITIES.size() >= MAX_AUTHORITIES) {
+                AUTHORITIES.clear();
+            }
+            interned = AUTHORITIES.computeIfAbsent(authority, SimpleGrantedAuthority::new);
+        }
+        return interned;
+    }
+
+    /**
+     * @return the shared immutable set of the given authorities, without duplicates and iterated in the given order
+     *     unless another user shares the same authorities in a different order.
+     */
+    @NonNull
+    static Set<GrantedAuthority> of(@NonNull Collection<? extends GrantedAuthority> authorities) {
+        Set<GrantedAuthority> set = new LinkedHashSet<>();
+        for (GrantedAuthority authority : authorities) {
+            set.add(intern(authority.getAuthority()));
+        }
+        Set<GrantedAuthority> shared = SETS.get(set);
+        if (shared == null) {
+            if (SETS.size() >= MAX_SETS) {
+                SETS.clear();
+            }
+            Set<GrantedAuthority> candidate = Collections.unmodifiableSet(set);
+            shared = SETS.putIfAbsent(candidate, candidate);
+            if (shared == null) {
+                shared = candidate;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks on the shared thread pool of Jenkins, at most a given number at a time, the others wait for their turn.
+ * Unlike a pool of its own, it holds no thread while idle and needs no shutdown when the realm is replaced.
+ */
+class BoundedExecutor implements Executor {
+
+    private static final Logger LOGGER = Logger.getLogger(BoundedExecutor.class.getName());
+
+    private final int concurrency;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final Executor delegate;
+
+    BoundedExecutor(int concurrency) {
+        this(concurrency, Computer.threadPoolForRemoting);
+    }
+
+    BoundedExecutor(int concurrency, @NonNull Executor delegate) {
+        this.concurrency = Math.max(1, concurrency);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task) {
+        tasks.add(task);
+        startWorker();
+    }
+
+    private void startWorker() {
+        while (!tasks.isEmpty()) {
+            int current = running.get();
+            if (current >= concurrency) {
+                // a running worker will pick the task up
+                return;
+            }
+            if (running.compareAndSet(current, current + 1)) {
+                try {
+                    delegate.execute(this::drain);
+                } catch (RuntimeException e) {
+                    running.decrementAndGet();
+                    throw e;
+                }
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Background task failed", e);
+                }
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+        // a task may have been queued after the last poll but before the decrement
+        startWorker();
+    }
+}
@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jose.util.Resource;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link Resource} retrieved over HTTP along with the caching information the server provided for it.
+ *
+ * @param resource the retrieved resource.
+ * @param eTag the {@code ETag} of the resource, used to revalidate it with {@code If-None-Match}.
+ * @param lastModified the {@code Last-Modified} date of the resource, used to revalidate it with
+ *     {@code If-Modified-Since}.
+ * @param expires the time after which the resource should be retrieved again, or {@code null} if the server did not
+ *     say.
+ * @param modified {@code false} if the server confirmed that a previously retrieved copy is still current, in which
+ *     case {@link #resource()} is that same copy.
+ */
+record CacheableResource(
+        @NonNull Resource resource,
+        @CheckForNull String eTag,
+        @CheckForNull String lastModified,
+        @CheckForNull Instant expires,
+        boolean modified) {
+
+    /**
+     * @return {@code true} if this resource can be revalidated with a conditional request.
+     */
+    boolean isRevalidatable() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * @return this same resource as confirmed to be current by a {@code 304 Not Modified} response.
+     */
+    CacheableResource notModified(
+            @CheckForNull String eTag, @CheckForNull String lastModified, @CheckForNull Instant expires) {
+        return new CacheableResource(
+                resource,
+                eTag == null ? this.eTag : eTag,
+                lastModified == null ? this.lastModified : lastModified,
+                expires,
+                false);
+    }
+
+    /**
+     * Determine when a response expires from its caching headers.
+     * {@code Cache-Control} takes precedence over {@code Expires}, and a response that must not be cached expires
+     * immediately, whatever the order of the directives.
+     *
+     * @param cacheControl the {@code Cache-Control} header if any.
+     * @param expires the {@code Expires} header if any.
+     * @param age the {@code Age} header if any.
+     * @param now the time the response was received.
+     * @return the time the response expires, or {@code null} if the headers do not say.
+     */
+    @CheckForNull
+    static Instant parseExpires(
+            @CheckForNull String cacheControl, @CheckForNull String expires, @CheckForNull String age, Instant now) {
+        Map<String, String> directives = parseDirectives(cacheControl);
+        if (directives.containsKey("no-store") || directives.containsKey("no-cache")) {
+            return now;
+        }
+        String maxAge = directives.get("max-age");
+        if (maxAge != null) {
+            try {
+                return now.plusSeconds(Math.max(0, Long.parseLong(maxAge) - parseAge(age)));
+            } catch (NumberFormatException e) {
+                // an invalid max-age means the response is stale
+                return now;
+            }
+        }
+        if (expires != null) {
+            try {
+                return ZonedDateTime.parse(expires.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant();
+            } catch (DateTimeParseException e) {
+                // invalid dates, and especially "0", mean the response has already expired
+                return now;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the directives of a {@code Cache-Control} header, keyed by their name in lower case, with the unquoted
+     *     value of those that have one, an empty string otherwise. Only the first occurrence of a directive counts.
+     */
+    private static Map<String, String> parseDirectives(@CheckForNull String cacheControl) {
+        Map<String, String> directives = new HashMap<>();
+        if (cacheControl == null) {
+            return directives;
+        }
+        for (String directive : cacheControl.split(",")) {
+            int equals = directive.indexOf('=');
+            String name = (equals < 0 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+            if (!name.isEmpty()) {
+                directives.putIfAbsent(name, equals < 0 ? "" : unquote(directive.substring(equals + 1).trim()));
+            }
+        }
+        return directives;
+    }
+
+    private static long parseAge(@CheckForNull String age) {
+        if (age == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(age.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,167 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Stops calling an endpoint of the OpenID provider once it keeps failing.
+ * After {@code failureThreshold} consecutive failures the circuit opens and calls are rejected without reaching the
+ * provider, so that an outage of the provider does not tie up a request thread for the duration of a timeout on
+ * every request. Once {@code openMillis} have elapsed a single call is let through to probe the provider: the
+ * circuit closes if it succeeds and opens again if it fails.
+ */
+@Restricted(NoExternalUse.class)
+public final class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+        /** Calls go through. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** A single call is probing the provider, the others are rejected. */
+        HALF_OPEN
+    }
+
+    /**
+     * The outcome of a call, see {@link #record(Outcome)}.
+     */
+    enum Outcome {
+        /** The provider answered, see {@link #onSuccess()}. */
+        SUCCESS,
+        /** The provider could not be reached or is failing, see {@link #onFailure()}. */
+        FAILURE,
+        /** The call says nothing about the provider, see {@link #onIgnored()}. */
+        IGNORED
+    }
+
+    private final String name;
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private final LongSupplier clockMillis;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAtMillis;
+
+    /**
+     * @param name the name of the endpoint, for logging.
+     * @param failureThreshold the number of consecutive failures that opens the circuit.
+     * @param openMillis the time the circuit stays open before probing the provider again.
+     * @param clockMillis the current time in milliseconds.
+     */
+    CircuitBreaker(@NonNull String name, int failureThreshold, long openMillis, @NonNull LongSupplier clockMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * @return {@code true} if a call may be made, in which case its outcome must be reported with either
+     *     {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clockMillis.getAsLong() - openedAtMillis >= openMillis) {
+                    state = State.HALF_OPEN;
+                    LOGGER.log(Level.FINE, "Probing the {0} endpoint of the OpenID provider", name);
+                    return true;
+                }
+                return false;
+            default:
+                // the probe is in progress
+                return false;
+        }
+    }
+
+    /**
+     * Record the outcome of a call.
+     */
+    void record(@NonNull Outcome outcome) {
+        switch (outcome) {
+            case SUCCESS -> onSuccess();
+            case FAILURE -> onFailure();
+            case IGNORED -> onIgnored();
+        }
+    }
+
+    /**
+     * Record a call which reached the provider.
+     */
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.log(Level.INFO, "The {0} endpoint of the OpenID provider is available again", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Record a call which failed to reach the provider.
+     */
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "The {0} endpoint of the OpenID provider failed {1} times in a row, not calling it for {2} ms",
+                        new Object[] {name, consecutiveFailures, openMillis});
+            }
+            state = State.OPEN;
+            openedAtMillis = clockMillis.getAsLong();
+        }
+    }
+
+    /**
+     * Record a call whose outcome says nothing about the provider, such as one refused before reaching it.
+     * It does not count as a failure, and if it was probing the provider, the next call probes it instead.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    @NonNull
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the time at which the circuit last opened, in milliseconds since the epoch.
+     */
+    public synchronized long getOpenedAtMillis() {
+        return openedAtMillis;
+    }
+
+    /**
+     * Thrown instead of calling the provider while the circuit is open.
+     */
+    static final class OpenException extends ProviderUnreachableException {
+
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String name) {
+            super("Not calling the " + name + " endpoint of the OpenID provider as it keeps failing");
+        }
+    }
+}
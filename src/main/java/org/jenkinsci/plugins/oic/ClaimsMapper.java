@@ -0,0 +1,216 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jwt.JWT;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import io.burt.jmespath.Expression;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The mapping from the claims of the provider to the user, as configured on the realm, compiled once.
+ * Each login or refresh then maps the ID token and user info in a single pass, with the claims of the ID token parsed
+ * only once, and fields given as a plain (possibly dotted) claim name are looked up directly rather than through the
+ * JMESPath interpreter.
+ */
+final class ClaimsMapper {
+
+    /**
+     * Expressions that are nothing but a chain of unquoted identifiers, such as {@code email} or {@code user.name}.
+     */
+    private static final Pattern DOTTED_PATH = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+
+    @CheckForNull
+    private final ClaimPath userName;
+
+    @CheckForNull
+    private final ClaimPath email;
+
+    @CheckForNull
+    private final ClaimPath fullName;
+
+    @CheckForNull
+    private final ClaimPath avatar;
+
+    @CheckForNull
+    private final ClaimPath groups;
+
+    @CheckForNull
+    private final ClaimPath tokenFieldToCheck;
+
+    ClaimsMapper(
+            @CheckForNull String userNameField,
+            @CheckForNull String emailField,
+            @CheckForNull String fullNameField,
+            @CheckForNull String groupsField,
+            @CheckForNull String tokenFieldToCheckKey) {
+        this.userName = compile(userNameField, "user name field");
+        this.email = compile(emailField, "email field");
+        this.fullName = compile(fullNameField, "full name field");
+        // Default on OIDC spec, part of profile claim
+        this.avatar = compile("picture", "avatar field");
+        this.groups = compile(groupsField, "groups field");
+        this.tokenFieldToCheck = compile(tokenFieldToCheckKey, "token field to check");
+    }
+
+    /**
+     * @return {@code true} if a valid groups field is configured.
+     */
+    boolean hasGroups() {
+        return groups != null;
+    }
+
+    /**
+     * Tells whether the ID token carries all the claims mapped, so that the user info would add nothing.
+     * The avatar is not considered, as it is not configured and few providers put it in the ID token.
+     */
+    boolean isSatisfiedBy(@CheckForNull JWT idToken) throws ParseException {
+        if (idToken == null) {
+            return false;
+        }
+        Map<String, Object> claims = idToken.getJWTClaimsSet().getClaims();
+        return isPresent(userName, claims)
+                && isPresent(email, claims)
+                && isPresent(fullName, claims)
+                && (groups == null || groups.search(claims) != null);
+    }
+
+    private static boolean isPresent(@CheckForNull ClaimPath path, Map<String, Object> claims) {
+        return path == null || stringField(path, claims, null) != null;
+    }
+
+    /**
+     * Map the claims of a user, the user info taking precedence over the ID token.
+     */
+    MappedClaims map(@CheckForNull JWT idToken, @CheckForNull Map<String, Object> userInfo) throws ParseException {
+        Map<String, Object> claims = idToken == null ? null : idToken.getJWTClaimsSet().getClaims();
+        Object groupsObject = null;
+        if (groups != null) {
+            groupsObject = userInfo == null ? null : groups.search(userInfo);
+            if (groupsObject == null && claims != null) {
+                groupsObject = groups.search(claims);
+            }
+        }
+        return new MappedClaims(
+                stringField(userName, claims, userInfo),
+                stringField(email, claims, userInfo),
+                stringField(fullName, claims, userInfo),
+                stringField(avatar, claims, userInfo),
+                groupsObject,
+                tokenFieldToCheck == null || claims == null ? null : toString(tokenFieldToCheck.search(claims)));
+    }
+
+    @CheckForNull
+    private static String stringField(
+            @CheckForNull ClaimPath path, @CheckForNull Map<String, Object> claims, Map<String, Object> userInfo) {
+        if (path == null) {
+            return null;
+        }
+        if (userInfo != null) {
+            Object field = path.search(userInfo);
+            if (field instanceof String s) {
+                String fieldValue = Util.fixEmptyAndTrim(s);
+                if (fieldValue != null) {
+                    return fieldValue;
+                }
+            }
+            // pac4j OIDC client returns URI for some fields like the "picture" field
+            if (field instanceof URI uri) {
+                return uri.toASCIIString();
+            }
+        }
+        return claims == null ? null : Util.fixEmptyAndTrim(toString(path.search(claims)));
+    }
+
+    @CheckForNull
+    private static String toString(@CheckForNull Object value) {
+        if (value != null && !(value instanceof Map) && !(value instanceof List)) {
+            return String.valueOf(value);
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private static ClaimPath compile(@CheckForNull String field, String logComment) {
+        if (field == null) {
+            return null;
+        }
+        if (DOTTED_PATH.matcher(field).matches()) {
+            return new DottedPath(field.split("\\."));
+        }
+        Expression<Object> expression = OicSecurityRealm.compileJMESPath(field, logComment);
+        return expression == null ? null : expression::search;
+    }
+
+    /**
+     * Where to find a field among claims.
+     */
+    private interface ClaimPath {
+        @CheckForNull
+        Object search(Object claims);
+    }
+
+    /**
+     * A chain of claim names, looked up with the same outcome as the equivalent JMESPath expression.
+     */
+    private record DottedPath(String[] names) implements ClaimPath {
+        @Override
+        public Object search(Object claims) {
+            Object value = claims;
+            for (String name : names) {
+                if (!(value instanceof Map<?, ?> map)) {
+                    return null;
+                }
+                value = map.get(name);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * The outcome of mapping the claims of a user.
+     * @param groups the raw groups claim, to be interpreted by the realm.
+     * @param tokenFieldToCheck the value of the field to check, which is only ever looked up in the ID token.
+     */
+    record MappedClaims(
+            @CheckForNull String username,
+            @CheckForNull String email,
+            @CheckForNull String fullName,
+            @CheckForNull String avatarUrl,
+            @CheckForNull Object groups,
+            @CheckForNull String tokenFieldToCheck) {
+
+        /**
+         * A digest of the claims the user is made of, which tells whether they changed between two logins or token
+         * refreshes of that user.
+         */
+        byte[] fingerprint() {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is always available", e);
+            }
+            for (Object field : Arrays.asList(username, email, fullName, avatarUrl, groups)) {
+                if (field == null) {
+                    digest.update((byte) 0);
+                } else {
+                    byte[] bytes = String.valueOf(field).getBytes(StandardCharsets.UTF_8);
+                    // the length keeps the fields apart, so that a character moving from one to the next is noticed
+                    digest.update((byte) 1);
+                    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+                    digest.update(bytes);
+                }
+            }
+            return digest.digest();
+        }
+    }
+}
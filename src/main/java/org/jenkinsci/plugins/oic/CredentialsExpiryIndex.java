@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.User;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory index of when the {@link OicCredentials} of each user expire, keyed by
+ * {@link jenkins.model.IdStrategy#keyFor(String)}.
+ * The realm owning it keeps it up to date whenever it stores or loads credentials, so that the token expiration
+ * filter can let requests with valid credentials through without loading the user or looking up its credentials.
+ * A user missing from the index simply goes through the full check.
+ */
+final class CredentialsExpiryIndex {
+
+    /**
+     * Value recorded for credentials that never expire.
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    // the values are only boxed when credentials are stored, looking them up on each request allocates nothing
+    private final Map<String, Long> expiresAtMillis = new ConcurrentHashMap<>();
+
+    /**
+     * Record the credentials now held by a user.
+     */
+    void update(@NonNull String userId, @CheckForNull Long expiresAtMillis) {
+        this.expiresAtMillis.put(User.idStrategy().keyFor(userId), expiresAtMillis == null ? NEVER : expiresAtMillis);
+    }
+
+    /**
+     * Forget about the credentials of a user, who logged out or was deleted.
+     */
+    void remove(@NonNull String userId) {
+        expiresAtMillis.remove(User.idStrategy().keyFor(userId));
+    }
+
+    /**
+     * @return {@code true} if the user is known to have credentials that have not expired at the given time,
+     *     {@code false} if they have expired or are not known.
+     */
+    boolean isValid(@NonNull String userId, long nowMillis) {
+        Long expiresAt = expiresAtMillis.get(User.idStrategy().keyFor(userId));
+        return expiresAt != null && nowMillis < expiresAt;
+    }
+}
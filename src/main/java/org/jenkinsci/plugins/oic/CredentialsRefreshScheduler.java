@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.User;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Refreshes the credentials of users in the background once a given fraction of their lifetime has passed, so that
+ * requests do not have to wait for the token endpoint when the credentials expire.
+ * Only users who made a request since their credentials were last refreshed are refreshed, the credentials of users
+ * who went away are left to expire.
+ * The number of refreshes running at the same time is bounded, the others wait for their turn.
+ */
+class CredentialsRefreshScheduler {
+
+    /**
+     * Percentage of the lifetime of the credentials after which they are refreshed, {@code 0} (the default) disables
+     * refreshing ahead of expiry.
+     */
+    @SuppressWarnings("boxing")
+    private static final int REFRESH_AHEAD_PERCENT =
+            SystemProperties.getInteger(OicSecurityRealm.class.getName() + ".refreshAheadPercent", 0);
+
+    /**
+     * Maximum number of credentials refreshed at the same time.
+     */
+    @SuppressWarnings("boxing")
+    private static final int REFRESH_AHEAD_CONCURRENCY =
+            SystemProperties.getInteger(OicSecurityRealm.class.getName() + ".refreshAheadConcurrency", 2);
+
+    private final OicSecurityRealm realm;
+
+    private final int refreshAheadPercent;
+
+    private final Executor executor;
+
+    /**
+     * The scheduled refresh of each user, keyed by {@link jenkins.model.IdStrategy#keyFor(String)}.
+     */
+    private final Map<String, ScheduledRefresh> scheduledRefreshes = new ConcurrentHashMap<>();
+
+    CredentialsRefreshScheduler(@NonNull OicSecurityRealm realm, int refreshAheadPercent, int concurrency) {
+        this.realm = realm;
+        this.refreshAheadPercent = refreshAheadPercent;
+        this.executor = new BoundedExecutor(concurrency);
+    }
+
+    /**
+     * @return a scheduler for the given realm, or {@code null} if refreshing ahead of expiry is disabled.
+     */
+    @CheckForNull
+    static CredentialsRefreshScheduler create(@NonNull OicSecurityRealm realm) {
+        if (REFRESH_AHEAD_PERCENT <= 0 || REFRESH_AHEAD_PERCENT >= 100) {
+            return null;
+        }
+        return new CredentialsRefreshScheduler(realm, REFRESH_AHEAD_PERCENT, Math.max(1, REFRESH_AHEAD_CONCURRENCY));
+    }
+
+    /**
+     * Schedule the refresh of newly obtained credentials, replacing any refresh scheduled for the previous ones.
+     */
+    void schedule(@NonNull String userId, @NonNull OicCredentials credentials) {
+        String key = User.idStrategy().keyFor(userId);
+        Long expiresAtMillis = credentials.getExpiresAtMillis();
+        ScheduledRefresh previous;
+        if (expiresAtMillis == null) {
+            // credentials that never expire need no refresh
+            previous = scheduledRefreshes.remove(key);
+        } else {
+            long lifetime = Math.max(0, expiresAtMillis - System.currentTimeMillis());
+            ScheduledRefresh refresh = new ScheduledRefresh(userId, credentials);
+            previous = scheduledRefreshes.put(key, refresh);
+            refresh.future = Timer.get()
+                    .schedule(() -> submit(key, refresh), lifetime * refreshAheadPercent / 100, TimeUnit.MILLISECONDS);
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * Record that a user made a request, so that their credentials are kept fresh.
+     */
+    void markActive(@NonNull String userId) {
+        ScheduledRefresh refresh = scheduledRefreshes.get(User.idStrategy().keyFor(userId));
+        if (refresh != null) {
+            refresh.active = true;
+        }
+    }
+
+    private void submit(String key, ScheduledRefresh refresh) {
+        if (scheduledRefreshes.get(key) != refresh) {
+            // superseded by newer credentials
+            return;
+        }
+        if (!refresh.active) {
+            scheduledRefreshes.remove(key, refresh);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                realm.refreshAhead(refresh.userId, refresh.credentials);
+            } finally {
+                // a successful refresh has scheduled the next one already
+                scheduledRefreshes.remove(key, refresh);
+            }
+        });
+    }
+
+    private static final class ScheduledRefresh {
+        private final String userId;
+        private final OicCredentials credentials;
+        private volatile boolean active;
+        private volatile ScheduledFuture<?> future;
+
+        ScheduledRefresh(String userId, OicCredentials credentials) {
+            this.userId = userId;
+            this.credentials = credentials;
+        }
+
+        void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.oic;
 
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.ProxyConfiguration;
 import java.net.Proxy;
 import java.net.http.HttpRequest;
@@ -8,6 +9,7 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import jenkins.model.Jenkins;
 import jenkins.security.FIPS140;
 import org.jenkinsci.plugins.oic.ssl.IgnoringHostNameVerifier;
@@ -21,11 +23,38 @@ class CustomOidcConfiguration extends OidcConfiguration {
 
     private final boolean disableTLS;
 
+    /**
+     * The lenient socket factory used when TLS is disabled, shared by all requests so that they can resume TLS
+     * sessions rather than each performing a full handshake.
+     */
+    @CheckForNull
+    private final SSLSocketFactory sslSocketFactory;
+
+    @CheckForNull
+    private JwksKeyCache jwksKeyCache;
+
     CustomOidcConfiguration(boolean disableTLS) {
         this.disableTLS = disableTLS;
         if (FIPS140.useCompliantAlgorithms() && disableTLS) {
             throw new IllegalStateException("Cannot disable TLS validation in FIPS-140 mode");
         }
+        try {
+            this.sslSocketFactory = disableTLS ? TLSUtils.createAnythingGoesSSLSocketFactory() : null;
+        } catch (KeyManagementException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("could not configure the SSLFactory, this should not be possible", e);
+        }
+    }
+
+    /**
+     * @return the cache of the provider signing keys shared by the clients of the realm, if any.
+     */
+    @CheckForNull
+    JwksKeyCache getJwksKeyCache() {
+        return jwksKeyCache;
+    }
+
+    void setJwksKeyCache(@CheckForNull JwksKeyCache jwksKeyCache) {
+        this.jwksKeyCache = jwksKeyCache;
     }
 
     @Override
@@ -40,13 +69,15 @@ class CustomOidcConfiguration extends OidcConfiguration {
             }
         }
         request.setProxy(proxy);
+        // pac4j only calls the token endpoint (with a POST) and the userinfo endpoint (with a GET) itself
+        IdpEndpoint endpoint = request.getMethod() == HTTPRequest.Method.GET ? IdpEndpoint.USERINFO : IdpEndpoint.TOKEN;
+        request.setConnectTimeout(endpoint.connectTimeoutMillis(request.getConnectTimeout()));
+        request.setReadTimeout(endpoint.readTimeoutMillis(request.getReadTimeout()));
         if (disableTLS) {
             request.setHostnameVerifier(IgnoringHostNameVerifier.INSTANCE);
-            try {
-                request.setSSLSocketFactory(TLSUtils.createAnythingGoesSSLSocketFactory());
-            } catch (KeyManagementException | NoSuchAlgorithmException e) {
-                throw new IllegalStateException("could not configure the SSLFactory, this should not be possible", e);
-            }
+            request.setSSLSocketFactory(sslSocketFactory);
         }
+        // pac4j sends the request right after configuring it
+        endpoint.begin();
     }
 }
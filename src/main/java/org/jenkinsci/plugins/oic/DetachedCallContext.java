@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.oic;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.model.Jenkins;
+import org.pac4j.core.context.CallContext;
+import org.pac4j.core.context.Cookie;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.core.context.session.SessionStore;
+
+/**
+ * The context of calls to pac4j made outside of any request, such as refreshing credentials in the background.
+ * It stands for an empty request to the root of Jenkins, whose attributes, response headers and session only live as
+ * long as the context, so that whatever pac4j looks up or records along the way behaves as it would for a request
+ * without a session.
+ */
+final class DetachedCallContext {
+
+    private DetachedCallContext() {}
+
+    static CallContext create() {
+        return new CallContext(new DetachedWebContext(), new DetachedSessionStore());
+    }
+
+    private static final class DetachedWebContext implements WebContext {
+
+        private final URI url;
+
+        private final Map<String, Object> requestAttributes = new HashMap<>();
+
+        private final Map<String, String> responseHeaders = new HashMap<>();
+
+        DetachedWebContext() {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            String rootUrl = jenkins == null ? null : jenkins.getRootUrl();
+            this.url = URI.create(rootUrl == null ? "http://localhost/" : rootUrl);
+        }
+
+        @Override
+        public Optional<String> getRequestParameter(String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Map<String, String[]> getRequestParameters() {
+            return Map.of();
+        }
+
+        @Override
+        public Optional<Object> getRequestAttribute(String name) {
+            return Optional.ofNullable(requestAttributes.get(name));
+        }
+
+        @Override
+        public void setRequestAttribute(String name, Object value) {
+            requestAttributes.put(name, value);
+        }
+
+        @Override
+        public Optional<String> getRequestHeader(String name) {
+            return Optional.empty();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public String getRemoteAddr() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public void setResponseHeader(String name, String value) {
+            responseHeaders.put(name, value);
+        }
+
+        @Override
+        public Optional<String> getResponseHeader(String name) {
+            return Optional.ofNullable(responseHeaders.get(name));
+        }
+
+        @Override
+        public void setResponseContentType(String content) {
+            // there is no response
+        }
+
+        @Override
+        public String getServerName() {
+            return url.getHost();
+        }
+
+        @Override
+        public int getServerPort() {
+            if (url.getPort() != -1) {
+                return url.getPort();
+            }
+            return isSecure() ? 443 : 80;
+        }
+
+        @Override
+        public String getScheme() {
+            return url.getScheme();
+        }
+
+        @Override
+        public boolean isSecure() {
+            return "https".equals(url.getScheme());
+        }
+
+        @Override
+        public String getFullRequestURL() {
+            return url.toString();
+        }
+
+        @Override
+        public Collection<Cookie> getRequestCookies() {
+            return List.of();
+        }
+
+        @Override
+        public void addResponseCookie(Cookie cookie) {
+            // there is no response
+        }
+
+        @Override
+        public String getPath() {
+            return url.getPath();
+        }
+    }
+
+    /**
+     * A session created on demand and discarded along with the context.
+     */
+    private static final class DetachedSessionStore implements SessionStore {
+
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+        private String sessionId;
+
+        @Override
+        public synchronized Optional<String> getSessionId(WebContext context, boolean createSession) {
+            if (sessionId == null && createSession) {
+                sessionId = UUID.randomUUID().toString();
+            }
+            return Optional.ofNullable(sessionId);
+        }
+
+        @Override
+        public Optional<Object> get(WebContext context, String key) {
+            return Optional.ofNullable(attributes.get(key));
+        }
+
+        @Override
+        public void set(WebContext context, String key, Object value) {
+            if (value == null) {
+                attributes.remove(key);
+            } else {
+                getSessionId(context, true);
+                attributes.put(key, value);
+            }
+        }
+
+        @Override
+        public synchronized boolean destroySession(WebContext context) {
+            attributes.clear();
+            sessionId = null;
+            return true;
+        }
+
+        @Override
+        public Optional<Object> getTrackableSession(WebContext context) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<SessionStore> buildFromTrackableSession(WebContext context, Object trackableSession) {
+            return Optional.empty();
+        }
+
+        @Override
+        public synchronized boolean renewSession(WebContext context) {
+            if (sessionId != null) {
+                sessionId = UUID.randomUUID().toString();
+            }
+            return true;
+        }
+    }
+}
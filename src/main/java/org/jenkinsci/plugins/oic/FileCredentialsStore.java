@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.User;
+import hudson.util.AtomicFileWriter;
+import hudson.util.Secret;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps the credentials in memory and writes them behind to a small encrypted file per user, in
+ * {@code JENKINS_HOME/oic-credentials}, rather than in the {@code config.xml} of the user.
+ * Refreshing the credentials of a user then only rewrites a few hundred bytes instead of the whole user.
+ * Credentials left on the user by the default store are picked up until they are next replaced, at which point they
+ * are moved to the file and cleared from the user.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class FileCredentialsStore extends OicCredentialsStore {
+
+    private static final Logger LOGGER = Logger.getLogger(FileCredentialsStore.class.getName());
+
+    static final String ID = "file";
+
+    /**
+     * Delay before pending credentials are written, so that bursts of refreshes are written at once.
+     */
+    private static final long WRITE_DELAY_MILLIS = 1000;
+
+    private static final String SEPARATOR = "\n";
+
+    /**
+     * The credentials of each user, keyed by {@link jenkins.model.IdStrategy#keyFor(String)}.
+     */
+    private final Map<String, OicCredentials> credentials = new ConcurrentHashMap<>();
+
+    /**
+     * The users whose credentials have not been written yet, keyed like {@link #credentials}.
+     */
+    private final Map<String, String> pendingWrites = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    @NonNull
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @CheckForNull
+    @Override
+    public OicCredentials load(@NonNull User user, @CheckForNull HttpServletRequest request) {
+        String key = User.idStrategy().keyFor(user.getId());
+        OicCredentials current = credentials.get(key);
+        if (current == null) {
+            current = read(user);
+            if (current == null) {
+                return null;
+            }
+            OicCredentials concurrent = credentials.putIfAbsent(key, current);
+            if (concurrent != null) {
+                return concurrent;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public boolean store(
+            @NonNull User user, @NonNull OicCredentials credentials, @CheckForNull HttpServletRequest request)
+            throws IOException {
+        String key = User.idStrategy().keyFor(user.getId());
+        this.credentials.put(key, credentials);
+        OicCredentials legacy = user.getProperty(OicCredentials.class);
+        if (legacy != null && !isCleared(legacy)) {
+            // the file has to be written before the credentials are cleared from the user, or they could be lost
+            pendingWrites.remove(key);
+            write(user.getId(), credentials);
+            // Jenkins has no way to remove a property, one without any token is left instead
+            user.addProperty(cleared());
+            // saved along with the rest of the user when called within a BulkChange
+            return true;
+        }
+        pendingWrites.put(key, user.getId());
+        if (writeScheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(this::writePending, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    private void writePending() {
+        writeScheduled.set(false);
+        for (String key : pendingWrites.keySet()) {
+            String userId = pendingWrites.remove(key);
+            OicCredentials current = credentials.get(key);
+            if (userId == null || current == null) {
+                continue;
+            }
+            try {
+                write(userId, current);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write the credentials of " + userId, e);
+            }
+        }
+    }
+
+    @CheckForNull
+    private OicCredentials read(User user) {
+        Path file = getFile(user.getId());
+        String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            OicCredentials legacy = user.getProperty(OicCredentials.class);
+            return legacy == null || isCleared(legacy) ? null : legacy;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the credentials of " + user.getId() + " from " + file, e);
+            return null;
+        }
+        Secret secret = Secret.decrypt(content.trim());
+        String[] values = secret == null ? new String[0] : secret.getPlainText().split(SEPARATOR, -1);
+        if (values.length != 4) {
+            LOGGER.log(Level.WARNING, "Ignoring the unreadable credentials of {0} in {1}", new Object[] {
+                user.getId(), file
+            });
+            return null;
+        }
+        return new OicCredentials(
+                Secret.fromString(values[0]),
+                Secret.fromString(values[1]),
+                Secret.fromString(values[2]),
+                values[3].isEmpty() ? null : Long.valueOf(values[3]));
+    }
+
+    private void write(String userId, OicCredentials credentials) throws IOException {
+        Path file = getFile(userId);
+        Files.createDirectories(file.getParent());
+        Long expiresAtMillis = credentials.getExpiresAtMillis();
+        String content = String.join(
+                SEPARATOR,
+                credentials.getAccessToken(),
+                credentials.getIdToken(),
+                credentials.getRefreshToken(),
+                expiresAtMillis == null ? "" : expiresAtMillis.toString());
+        AtomicFileWriter writer = new AtomicFileWriter(file, StandardCharsets.UTF_8);
+        try {
+            writer.write(Secret.fromString(content).getEncryptedValue());
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    /**
+     * @return credentials to leave on a user in place of those moved to the file.
+     */
+    private static OicCredentials cleared() {
+        return new OicCredentials((Secret) null, null, null, null);
+    }
+
+    private static boolean isCleared(OicCredentials credentials) {
+        return Util.fixEmpty(credentials.getAccessToken()) == null
+                && Util.fixEmpty(credentials.getIdToken()) == null
+                && Util.fixEmpty(credentials.getRefreshToken()) == null
+                && credentials.getExpiresAtMillis() == null;
+    }
+
+    private static Path getFile(String userId) {
+        return Jenkins.get()
+                .getRootDir()
+                .toPath()
+                .resolve("oic-credentials")
+                .resolve(User.idStrategy().filenameOf(userId));
+    }
+}
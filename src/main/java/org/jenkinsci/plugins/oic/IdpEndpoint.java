@@ -0,0 +1,296 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+import org.pac4j.core.exception.TechnicalException;
+
+/**
+ * The endpoints of the OpenID provider called by the realm.
+ * Each one has its own timeouts and its own bound on the number of concurrent calls (a bulkhead), so that a slow
+ * endpoint cannot tie up all the request threads and background retrievals do not compete with user logins.
+ * For an endpoint named {@code token}, they are set with the system properties
+ * {@code org.jenkinsci.plugins.oic.OicSecurityRealm.token.connectTimeoutMillis},
+ * {@code org.jenkinsci.plugins.oic.OicSecurityRealm.token.readTimeoutMillis} and
+ * {@code org.jenkinsci.plugins.oic.OicSecurityRealm.token.maxConcurrentCalls}.
+ * With {@code org.jenkinsci.plugins.oic.OicSecurityRealm.adaptiveTimeouts} set, the read timeout is derived from the
+ * latency observed recently, capped by the configured one.
+ */
+enum IdpEndpoint {
+    DISCOVERY(2, OicMetrics.Operation.PROVIDER_METADATA),
+    JWKS(2, OicMetrics.Operation.JWKS),
+    TOKEN(32, OicMetrics.Operation.TOKEN),
+    USERINFO(32, OicMetrics.Operation.USERINFO);
+
+    private static final boolean ADAPTIVE_TIMEOUTS =
+            SystemProperties.getBoolean(OicSecurityRealm.class.getName() + ".adaptiveTimeouts");
+
+    /**
+     * How many times the 99th percentile of the observed latency is allowed in adaptive mode.
+     */
+    private static final int ADAPTIVE_TIMEOUT_FACTOR = 3;
+
+    /**
+     * The lowest read timeout set in adaptive mode, so that a very fast endpoint is not held to a deadline that the
+     * slightest hiccup would miss.
+     */
+    private static final int MIN_ADAPTIVE_TIMEOUT_MS = 1_000;
+
+    /**
+     * Maximum time a call waits for one of the other calls to the same endpoint to complete.
+     */
+    @SuppressWarnings("boxing")
+    private static final long PERMIT_WAIT_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".endpointPermitWaitMillis", 1_000L);
+
+    /**
+     * The calls made by the operations running in each thread, see {@link #calls}.
+     */
+    private static final ThreadLocal<CallsInProgress> CALLS_IN_PROGRESS = new ThreadLocal<>();
+
+    private final Integer connectTimeoutMillis;
+
+    private final Integer readTimeoutMillis;
+
+    private final Semaphore permits;
+
+    private final LatencyWindow latencies = new LatencyWindow();
+
+    private final OicMetrics.Operation operation;
+
+    @SuppressWarnings("boxing")
+    IdpEndpoint(int defaultMaxConcurrentCalls, OicMetrics.Operation operation) {
+        this.operation = operation;
+        String prefix = OicSecurityRealm.class.getName() + "." + name().toLowerCase(Locale.ROOT);
+        this.connectTimeoutMillis = SystemProperties.getInteger(prefix + ".connectTimeoutMillis");
+        this.readTimeoutMillis = SystemProperties.getInteger(prefix + ".readTimeoutMillis");
+        this.permits = new Semaphore(
+                Math.max(1, SystemProperties.getInteger(prefix + ".maxConcurrentCalls", defaultMaxConcurrentCalls)),
+                true);
+    }
+
+    /**
+     * @param defaultMillis the timeout used unless one is configured for this endpoint.
+     */
+    int connectTimeoutMillis(int defaultMillis) {
+        return connectTimeoutMillis == null ? defaultMillis : connectTimeoutMillis;
+    }
+
+    /**
+     * @param defaultMillis the timeout used unless one is configured for this endpoint.
+     */
+    int readTimeoutMillis(int defaultMillis) {
+        int configured = readTimeoutMillis == null ? defaultMillis : readTimeoutMillis;
+        if (!ADAPTIVE_TIMEOUTS || configured <= 0) {
+            return configured;
+        }
+        long p99 = latencies.p99();
+        if (p99 < 0) {
+            // not enough calls yet to tell
+            return configured;
+        }
+        return (int) Math.min(configured, Math.max(MIN_ADAPTIVE_TIMEOUT_MS, p99 * ADAPTIVE_TIMEOUT_FACTOR));
+    }
+
+    /**
+     * @param defaultConnectTimeoutMillis the connect timeout used unless one is configured for this endpoint.
+     * @param defaultReadTimeoutMillis the read timeout used unless one is configured for this endpoint.
+     * @return the longest a call to this endpoint may take before it fails, waiting for a permit included.
+     */
+    long maxCallMillis(int defaultConnectTimeoutMillis, int defaultReadTimeoutMillis) {
+        return PERMIT_WAIT_MILLIS
+                + timeoutOrMax(connectTimeoutMillis(defaultConnectTimeoutMillis))
+                + timeoutOrMax(readTimeoutMillis(defaultReadTimeoutMillis));
+    }
+
+    private static long timeoutOrMax(int timeoutMillis) {
+        // a timeout of zero means none at all
+        return timeoutMillis > 0 ? timeoutMillis : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Make a call to this endpoint, waiting briefly for a permit if too many calls are already in progress.
+     * @throws IOException if no permit could be obtained, caused by a {@link BulkheadFullException}, as the resources
+     *     retrieved this way are retrieved through interfaces that only let {@link IOException}s through.
+     */
+    <T, E extends Exception> T call(Call<T, E> call) throws E, IOException {
+        OicMetrics.Sample sample = operation.start();
+        try {
+            try {
+                acquire();
+            } catch (BulkheadFullException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            long start = System.nanoTime();
+            try {
+                T result = call.call();
+                sample.succeeded();
+                return result;
+            } finally {
+                release(start);
+            }
+        } catch (IOException | RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+        }
+    }
+
+    /**
+     * Run an operation of pac4j that calls endpoints of the provider itself.
+     * Each HTTP request it configures with {@link CustomOidcConfiguration#configureHttpRequest} is then
+     * {@link #begin begun} within the bulkhead of its endpoint, and ends when the operation makes its next request or
+     * completes. The permits are thus not held while pac4j waits for another endpoint or validates tokens.
+     */
+    static <T, E extends Exception> T calls(Call<T, E> operation) throws E {
+        CallsInProgress outer = CALLS_IN_PROGRESS.get();
+        CallsInProgress calls = new CallsInProgress();
+        CALLS_IN_PROGRESS.set(calls);
+        try {
+            return operation.call();
+        } catch (Exception e) {
+            calls.end(e);
+            throw e;
+        } finally {
+            calls.end(null);
+            if (outer == null) {
+                CALLS_IN_PROGRESS.remove();
+            } else {
+                CALLS_IN_PROGRESS.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Begin an HTTP call to this endpoint made by the operation running in the current thread, ending its previous
+     * call, as an operation makes its calls one after the other.
+     * Calls made outside of {@link #calls} are not bounded.
+     * @throws BulkheadFullException if no permit could be obtained.
+     */
+    void begin() throws BulkheadFullException {
+        CallsInProgress calls = CALLS_IN_PROGRESS.get();
+        if (calls == null) {
+            return;
+        }
+        calls.end(null);
+        OicMetrics.Sample sample = operation.start();
+        try {
+            acquire();
+        } catch (BulkheadFullException e) {
+            sample.failed(e);
+            sample.close();
+            throw e;
+        }
+        calls.current = new CallInProgress(this, sample, System.nanoTime());
+    }
+
+    private void acquire() throws BulkheadFullException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(PERMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            throw new BulkheadFullException(this);
+        }
+    }
+
+    private void release(long startNanos) {
+        permits.release();
+        latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private static final class CallsInProgress {
+
+        @CheckForNull
+        private CallInProgress current;
+
+        /**
+         * End the call in progress, if any.
+         * @param failure the failure of the operation, if it failed while the call was in progress.
+         */
+        void end(@CheckForNull Exception failure) {
+            CallInProgress call = current;
+            if (call == null) {
+                return;
+            }
+            current = null;
+            call.endpoint().release(call.startNanos());
+            if (failure == null) {
+                call.sample().succeeded();
+            } else {
+                call.sample().failed(failure);
+            }
+            call.sample().close();
+        }
+    }
+
+    private record CallInProgress(IdpEndpoint endpoint, OicMetrics.Sample sample, long startNanos) {}
+
+    /**
+     * Thrown when a call is rejected because too many calls to the same endpoint are in progress.
+     * It is not an {@link IOException}, as the call never reached the provider: it says nothing about whether the
+     * provider can be reached.
+     */
+    static final class BulkheadFullException extends TechnicalException {
+
+        private static final long serialVersionUID = 1L;
+
+        BulkheadFullException(IdpEndpoint endpoint) {
+            super("Too many concurrent calls to the " + endpoint.name().toLowerCase(Locale.ROOT)
+                    + " endpoint of the OpenID provider");
+        }
+    }
+
+    @FunctionalInterface
+    interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * The latency of the most recent calls to an endpoint.
+     */
+    private static final class LatencyWindow {
+
+        private static final int SIZE = 128;
+
+        /**
+         * Number of calls needed before the percentile is considered meaningful.
+         */
+        private static final int MIN_SAMPLES = 32;
+
+        private final long[] samples = new long[SIZE];
+
+        private int next;
+
+        private int filled;
+
+        private long p99 = -1;
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % SIZE;
+            filled = Math.min(filled + 1, SIZE);
+            if (filled >= MIN_SAMPLES && next % 8 == 0) {
+                // the percentile is only recomputed every few calls, sorting a copy of the window is cheap enough
+                long[] sorted = Arrays.copyOf(samples, filled);
+                Arrays.sort(sorted);
+                p99 = sorted[(sorted.length * 99 - 1) / 100];
+            }
+        }
+
+        /**
+         * @return the 99th percentile of the recent latency in milliseconds, or {@code -1} if unknown.
+         */
+        synchronized long p99() {
+            return p99;
+        }
+    }
+}
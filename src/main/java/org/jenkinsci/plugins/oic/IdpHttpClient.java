@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.model.Jenkins;
+
+/**
+ * The {@link HttpClient} shared by all the calls made to the OpenID provider that verify its certificate.
+ * Sharing it keeps connections (and their TLS sessions) alive between calls, so that only the first call to the
+ * provider pays for the handshake, and lets calls over {@code https} use HTTP/2.
+ * The connection timeout can only be set on a client, so there is one client per timeout in use, which in practice
+ * means a single one unless {@link IdpEndpoint endpoints} are given different timeouts.
+ * The clients are rebuilt when the Jenkins proxy configuration changes.
+ */
+final class IdpHttpClient {
+
+    @CheckForNull
+    private static volatile Clients clients;
+
+    private IdpHttpClient() {}
+
+    /**
+     * @param connectTimeoutMillis the connection timeout.
+     * @return the client to use with the current proxy configuration.
+     */
+    @NonNull
+    static HttpClient get(int connectTimeoutMillis) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        ProxyConfiguration proxy = jenkins == null ? null : jenkins.getProxy();
+        Clients c = clients;
+        if (c == null || c.proxy() != proxy) {
+            synchronized (IdpHttpClient.class) {
+                c = clients;
+                if (c == null || c.proxy() != proxy) {
+                    c = new Clients(proxy, new ConcurrentHashMap<>());
+                    clients = c;
+                }
+            }
+        }
+        return c.byConnectTimeout().computeIfAbsent(connectTimeoutMillis, t -> build(jenkins != null, t));
+    }
+
+    private static HttpClient build(boolean inJenkins, int connectTimeoutMillis) {
+        // unit tests have no proxy configuration to honour
+        HttpClient.Builder builder = inJenkins ? ProxyConfiguration.newHttpClientBuilder() : HttpClient.newBuilder();
+        builder.version(HttpClient.Version.HTTP_2).followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeoutMillis > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+        }
+        return builder.build();
+    }
+
+    private record Clients(@CheckForNull ProxyConfiguration proxy, Map<Integer, HttpClient> byConnectTimeout) {}
+}
@@ -0,0 +1,269 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyConverter;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import java.io.IOException;
+import java.net.URL;
+import java.security.Key;
+import java.security.PublicKey;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Realm wide cache of the signing keys published by the OpenID provider, keyed by {@code jwks_uri}.
+ * The keys are retrieved and converted once and then shared by every client built by the realm, rather than each
+ * client retrieving and parsing them again.
+ * Once known, the keys keep being served while they are retrieved again in the background, requests only wait for the
+ * retrieval of the keys when none are known yet or when a token is signed with a key we do not know.
+ * Such a token triggers a single retrieval so that key rotation is picked up straight away, with concurrent misses
+ * sharing that retrieval and further ones being rate limited.
+ */
+class JwksKeyCache {
+
+    private static final Logger LOGGER = Logger.getLogger(JwksKeyCache.class.getName());
+
+    /**
+     * Time after which the keys are retrieved again, so that revoked keys are eventually dropped.
+     */
+    private static final Duration TTL = Duration.ofMinutes(5);
+
+    /**
+     * Minimum time between two retrievals of the same keys caused by a token signed with an unknown key, and between
+     * two attempts after a failure.
+     */
+    private static final Duration MIN_REFETCH_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * Maximum number of key sets remembered.
+     * A realm only ever uses one {@code jwks_uri} so this is only a safety net.
+     */
+    private static final int MAX_KEY_SETS = 16;
+
+    private final ResourceRetriever resourceRetriever;
+
+    private final Clock clock;
+
+    private final Map<String, KeySet> keySets = new ConcurrentHashMap<>();
+
+    JwksKeyCache(@NonNull ResourceRetriever resourceRetriever) {
+        this(resourceRetriever, Clock.systemUTC());
+    }
+
+    JwksKeyCache(@NonNull ResourceRetriever resourceRetriever, @NonNull Clock clock) {
+        this.resourceRetriever = resourceRetriever;
+        this.clock = clock;
+    }
+
+    /**
+     * @return a key selector for tokens signed with the given algorithm, using the keys published at the given URL.
+     */
+    @NonNull
+    JWSKeySelector<SecurityContext> keySelector(@NonNull URL jwkSetUrl, @NonNull JWSAlgorithm jwsAlgorithm) {
+        String key = jwkSetUrl.toExternalForm();
+        KeySet keySet = keySets.get(key);
+        if (keySet == null) {
+            if (keySets.size() >= MAX_KEY_SETS) {
+                keySets.clear();
+            }
+            keySet = keySets.computeIfAbsent(key, k -> new KeySet(jwkSetUrl));
+        }
+        KeySet selected = keySet;
+        return (header, context) -> jwsAlgorithm.equals(header.getAlgorithm()) ? selected.select(header) : List.of();
+    }
+
+    /**
+     * The keys published at one URL.
+     */
+    private final class KeySet {
+
+        private final URL url;
+
+        @CheckForNull
+        private volatile Keys keys;
+
+        private volatile Instant refreshAt = Instant.MIN;
+
+        /**
+         * The last retrieval caused by a token signed with an unknown key, guarded by {@code this}.
+         */
+        private Instant lastUnknownKeyRetrieval = Instant.MIN;
+
+        /**
+         * The retrieval in progress, if any, guarded by {@code this}.
+         */
+        @CheckForNull
+        private CompletableFuture<Keys> inflightRetrieval;
+
+        KeySet(URL url) {
+            this.url = url;
+        }
+
+        List<Key> select(JWSHeader header) throws KeySourceException {
+            Keys current = keys;
+            if (current == null) {
+                OicMetrics.Cache.JWKS.miss();
+                current = await(retrieve(false, false));
+            } else {
+                if (!clock.instant().isBefore(refreshAt)) {
+                    // serve the keys we have while they are retrieved again
+                    retrieve(true, false);
+                }
+                OicMetrics.Cache.JWKS.hit();
+            }
+            List<Key> selected = current.select(header);
+            if (selected.isEmpty()) {
+                // the provider may have rotated its keys since we last retrieved them
+                selected = await(retrieve(false, true)).select(header);
+            }
+            return selected;
+        }
+
+        /**
+         * Retrieve the keys again, unless another thread is already doing so or it is too soon to ask again.
+         * @param async {@code true} to retrieve them on a background thread, {@code false} to retrieve them on the
+         *     calling thread unless another thread is already retrieving them.
+         * @param unknownKey {@code true} if the caller is looking for a key that is not in the current keys.
+         * @return the retrieval in progress, completing with the most recent keys, which are {@code null} if none
+         *     could be retrieved recently.
+         */
+        private CompletableFuture<Keys> retrieve(boolean async, boolean unknownKey) {
+            CompletableFuture<Keys> retrieval;
+            synchronized (this) {
+                if (inflightRetrieval != null) {
+                    return inflightRetrieval;
+                }
+                Instant now = clock.instant();
+                Instant notBefore = unknownKey ? lastUnknownKeyRetrieval.plus(MIN_REFETCH_INTERVAL) : refreshAt;
+                if (now.isBefore(notBefore)) {
+                    return CompletableFuture.completedFuture(keys);
+                }
+                if (unknownKey) {
+                    lastUnknownKeyRetrieval = now;
+                }
+                // keep serving what we have without retrying until the retrieval completes or the interval has passed
+                refreshAt = now.plus(MIN_REFETCH_INTERVAL);
+                retrieval = new CompletableFuture<>();
+                inflightRetrieval = retrieval;
+            }
+            Runnable task = () -> {
+                try {
+                    retrieval.complete(download());
+                } catch (KeySourceException | RuntimeException e) {
+                    retrieval.completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        inflightRetrieval = null;
+                    }
+                }
+            };
+            if (async) {
+                // the retrieval blocks on the network, which the small pool of Timer is not meant for
+                Computer.threadPoolForRemoting.submit(task);
+            } else {
+                task.run();
+            }
+            return retrieval;
+        }
+
+        /**
+         * Download and parse the keys, making them the ones served if successful.
+         * @return the most recent keys.
+         * @throws KeySourceException if the keys could not be retrieved and none were known.
+         */
+        private Keys download() throws KeySourceException {
+            Keys current = keys;
+            try {
+                Resource resource = resourceRetriever.retrieveResource(url);
+                if (current == null || !current.content().equals(resource.getContent())) {
+                    current = Keys.parse(resource.getContent());
+                    keys = current;
+                }
+                refreshAt = clock.instant().plus(TTL);
+                return current;
+            } catch (IOException | ParseException e) {
+                if (current == null) {
+                    throw new KeySourceException("Could not retrieve the signing keys from " + url, e);
+                }
+                LOGGER.log(
+                        Level.WARNING,
+                        "Could not retrieve the signing keys from " + url + ", keeping the previous ones",
+                        e);
+                return current;
+            }
+        }
+
+        private Keys await(CompletableFuture<Keys> retrieval) throws KeySourceException {
+            Keys retrieved;
+            try {
+                retrieved = retrieval.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new KeySourceException("Interrupted while retrieving the signing keys from " + url, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof KeySourceException k) {
+                    throw k;
+                }
+                throw new KeySourceException("Could not retrieve the signing keys from " + url, e.getCause());
+            }
+            if (retrieved == null) {
+                throw new KeySourceException("The signing keys from " + url + " could not be retrieved recently");
+            }
+            return retrieved;
+        }
+    }
+
+    /**
+     * A parsed key set along with the public keys converted from each of its keys.
+     */
+    private record Keys(String content, List<ConvertedKey> keys) {
+
+        static Keys parse(String content) throws ParseException {
+            List<ConvertedKey> keys = new ArrayList<>();
+            for (JWK jwk : JWKSet.parse(content).getKeys()) {
+                List<Key> publicKeys = KeyConverter.toJavaKeys(List.of(jwk)).stream()
+                        .filter(PublicKey.class::isInstance)
+                        .toList();
+                keys.add(new ConvertedKey(jwk, publicKeys));
+            }
+            return new Keys(content, List.copyOf(keys));
+        }
+
+        List<Key> select(JWSHeader header) {
+            JWKMatcher matcher = JWKMatcher.forJWSHeader(header);
+            if (matcher == null) {
+                return List.of();
+            }
+            List<Key> selected = new ArrayList<>();
+            for (ConvertedKey key : keys) {
+                if (matcher.matches(key.jwk())) {
+                    selected.addAll(key.publicKeys());
+                }
+            }
+            return selected;
+        }
+    }
+
+    private record ConvertedKey(JWK jwk, List<Key> publicKeys) {}
+}
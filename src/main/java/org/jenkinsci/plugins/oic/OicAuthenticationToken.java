@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.oic;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * The authentication of a user logged in through the OpenID provider.
+ * Its authorities are the set shared by every user with the same groups (see {@link AuthoritySets}) rather than a
+ * copy of their own, so permission checks can test membership of a group without scanning all of them.
+ */
+class OicAuthenticationToken extends UsernamePasswordAuthenticationToken {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Set<GrantedAuthority> authorities;
+
+    OicAuthenticationToken(String userName, Set<GrantedAuthority> authorities) {
+        // the authorities are held here, not copied into the list of the parent
+        super(userName, "", List.of());
+        this.authorities = authorities;
+    }
+
+    @Override
+    public Set<GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof OicAuthenticationToken other
+                && authorities.equals(other.authorities)
+                && Objects.equals(getPrincipal(), other.getPrincipal())
+                && Objects.equals(getDetails(), other.getDetails())
+                && isAuthenticated() == other.isAuthenticated();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getPrincipal(), authorities);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [Principal=" + getPrincipal() + ", Authenticated=" + isAuthenticated()
+                + ", Details=" + getDetails() + ", Granted Authorities=" + authorities + "]";
+    }
+}
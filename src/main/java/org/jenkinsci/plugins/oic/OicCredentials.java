@@ -8,6 +8,7 @@ import hudson.model.UserProperty;
 import hudson.model.UserPropertyDescriptor;
 import hudson.util.Secret;
 import java.io.Serializable;
+import java.util.Objects;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.StaplerRequest2;
@@ -70,6 +71,16 @@ public class OicCredentials extends UserProperty implements Serializable {
         return expiresAtMillis;
     }
 
+    /**
+     * @return {@code true} if the given credentials hold the same tokens and expiry as these.
+     */
+    boolean isSameAs(OicCredentials other) {
+        return Objects.equals(getAccessToken(), other.getAccessToken())
+                && Objects.equals(getIdToken(), other.getIdToken())
+                && Objects.equals(getRefreshToken(), other.getRefreshToken())
+                && Objects.equals(expiresAtMillis, other.expiresAtMillis);
+    }
+
     @Extension
     @Symbol(PROPERTY_NAME)
     public static final class DescriptorImpl extends UserPropertyDescriptor {
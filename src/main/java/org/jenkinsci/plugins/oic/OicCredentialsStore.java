@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Where the {@link OicCredentials} of users are kept between requests.
+ * The store in use is selected by its {@link #getId() id} with the
+ * {@code org.jenkinsci.plugins.oic.OicSecurityRealm.credentialsStore} system property, and defaults to keeping the
+ * credentials as a property of the user, in its {@code config.xml}.
+ */
+public abstract class OicCredentialsStore implements ExtensionPoint {
+
+    private static final Logger LOGGER = Logger.getLogger(OicCredentialsStore.class.getName());
+
+    private static final String STORE_ID = SystemProperties.getString(
+            OicSecurityRealm.class.getName() + ".credentialsStore", UserPropertyCredentialsStore.ID);
+
+    private static volatile boolean unknownStoreReported;
+
+    /**
+     * @return the identifier used to select this store.
+     */
+    @NonNull
+    public abstract String getId();
+
+    /**
+     * @param user the user whose credentials are looked up.
+     * @param request the request being processed, or {@code null} when called outside of any request.
+     * @return the credentials of the user, or {@code null} if there are none.
+     *     The same instance is returned until the credentials are replaced.
+     */
+    @CheckForNull
+    public abstract OicCredentials load(@NonNull User user, @CheckForNull HttpServletRequest request);
+
+    /**
+     * Replace the credentials of a user.
+     * @param user the user whose credentials are replaced.
+     * @param credentials the new credentials.
+     * @param request the request being processed, or {@code null} when called outside of any request.
+     * @return {@code true} if the user itself was modified and needs to be saved.
+     * @throws IOException if the credentials could not be stored.
+     */
+    public abstract boolean store(
+            @NonNull User user, @NonNull OicCredentials credentials, @CheckForNull HttpServletRequest request)
+            throws IOException;
+
+    /**
+     * @return the store selected for this instance.
+     */
+    @NonNull
+    static OicCredentialsStore get() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            // unit tests
+            return new UserPropertyCredentialsStore();
+        }
+        ExtensionList<OicCredentialsStore> stores = ExtensionList.lookup(OicCredentialsStore.class);
+        for (OicCredentialsStore store : stores) {
+            if (store.getId().equals(STORE_ID)) {
+                return store;
+            }
+        }
+        if (!unknownStoreReported) {
+            unknownStoreReported = true;
+            LOGGER.warning(() -> "Unknown credentials store " + STORE_ID + ", keeping the credentials on the user");
+        }
+        return stores.get(UserPropertyCredentialsStore.class);
+    }
+}
@@ -0,0 +1,474 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Numbers about the authentication pipeline, so that the latency of the OpenID provider and the rate of failed logins
+ * and refreshes can be monitored and alerted on.
+ * They are published over JMX, as {@code org.jenkinsci.plugins.oic:type=Operation,name=<operation>} for the latency,
+ * outcome and number in flight of each {@link Operation}, and {@code org.jenkinsci.plugins.oic:type=Cache,name=<cache>}
+ * for the hit ratio of each {@link Cache}.
+ * Operations are also traced with Java Flight Recorder as {@link OicOperationEvent}s.
+ */
+@Restricted(NoExternalUse.class)
+public final class OicMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(OicMetrics.class.getName());
+
+    private static final String DOMAIN = "org.jenkinsci.plugins.oic";
+
+    public enum Operation {
+        COMMENCE_LOGIN("commenceLogin", null, true),
+        FINISH_LOGIN("finishLogin", null, true),
+        /** Calls to the token endpoint, both at login and to refresh credentials. */
+        TOKEN("token", "token", true),
+        /** Validating the ID token and calling the userinfo endpoint at login. */
+        USERINFO("userInfo", "userinfo", true),
+        /** Refreshing the credentials of a user, including when the circuit breaker prevents it. */
+        REFRESH_TOKEN("refreshToken", "token", true),
+        PROVIDER_METADATA("providerMetadata", "discovery", true),
+        JWKS("jwks", "jwks", true),
+        CLAIMS_MAPPING("claimsMapping", null, true),
+        USER_SAVE("userSave", null, true),
+        ESCAPE_HATCH("escapeHatch", null, true),
+        /** Not traced with Java Flight Recorder as it happens on every request. */
+        TOKEN_EXPIRATION_CHECK("tokenExpirationCheck", null, false);
+
+        private final String metricName;
+
+        @CheckForNull
+        private final String endpoint;
+
+        private final boolean traced;
+
+        private final OperationStats stats = new OperationStats();
+
+        /**
+         * @param endpoint the endpoint of the provider called by the operation, if any.
+         * @param traced {@code true} to emit a {@link OicOperationEvent} for each occurrence.
+         */
+        Operation(String metricName, @CheckForNull String endpoint, boolean traced) {
+            this.metricName = metricName;
+            this.endpoint = endpoint;
+            this.traced = traced;
+        }
+
+        /**
+         * Start timing an occurrence of this operation, whose outcome must be reported before the returned sample is
+         * closed, unless it ends with an exception.
+         */
+        @NonNull
+        public Sample start() {
+            stats.inFlight.incrementAndGet();
+            return new Sample(this, traced ? new OicOperationEvent() : null);
+        }
+    }
+
+    public enum Cache {
+        /** The provider metadata served from memory or from its saved snapshot rather than downloaded. */
+        PROVIDER_METADATA("providerMetadata"),
+        /** The signing keys served from memory rather than retrieved. */
+        JWKS("jwks"),
+        /** Requests of logged in users answered without loading their credentials. */
+        CREDENTIALS_EXPIRY("credentialsExpiry"),
+        /** The claims of users reused rather than retrieved again from the userinfo endpoint. */
+        USERINFO("userInfo"),
+        /** Logins and refreshes whose ID token held all the mapped claims, sparing a call to the userinfo endpoint. */
+        ID_TOKEN_CLAIMS("idTokenClaims"),
+        /** Token refreshes which found the claims of the user unchanged, and only replaced its credentials. */
+        CLAIMS("claims");
+
+        private final String metricName;
+
+        private final CacheStats stats = new CacheStats();
+
+        Cache(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public void hit() {
+            stats.hits.increment();
+        }
+
+        public void miss() {
+            stats.misses.increment();
+        }
+    }
+
+    private OicMetrics() {}
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Operation operation : Operation.values()) {
+                ObjectName name = new ObjectName(DOMAIN + ":type=Operation,name=" + operation.metricName);
+                register(server, name, operation.stats);
+            }
+            for (Cache cache : Cache.values()) {
+                register(server, new ObjectName(DOMAIN + ":type=Cache,name=" + cache.metricName), cache.stats);
+            }
+        } catch (JMException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not publish the OpenID Connect metrics over JMX", e);
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        // a previous copy of the plugin may still have its metrics registered
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+    }
+
+    /**
+     * @return the cause reported for a failure, such as {@code invalid_grant}, {@code timeout} or {@code parse_error}.
+     */
+    @NonNull
+    static String causeOf(@NonNull Throwable failure) {
+        if (StringUtils.contains(failure.getMessage(), "invalid_grant")) {
+            return "invalid_grant";
+        }
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof CircuitBreaker.OpenException) {
+                return "circuit_open";
+            }
+            if (t instanceof IdpEndpoint.BulkheadFullException) {
+                return "bulkhead_full";
+            }
+            if (t instanceof SocketTimeoutException || t instanceof HttpTimeoutException) {
+                return "timeout";
+            }
+            // java.text, Nimbus JOSE and Nimbus OAuth each have their own
+            if (t.getClass().getSimpleName().equals("ParseException")) {
+                return "parse_error";
+            }
+        }
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return "io_error";
+            }
+        }
+        return "error";
+    }
+
+    /**
+     * An occurrence of an operation being timed.
+     */
+    public static final class Sample implements AutoCloseable {
+
+        private final Operation operation;
+
+        @CheckForNull
+        private final OicOperationEvent event;
+
+        private final long startNanos;
+
+        private String failure = "error";
+
+        @CheckForNull
+        private String userId;
+
+        private boolean closed;
+
+        private Sample(Operation operation, @CheckForNull OicOperationEvent event) {
+            this.operation = operation;
+            this.event = event;
+            if (event != null) {
+                event.begin();
+            }
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Record the user the operation is made for, which is only traced as a hash.
+         */
+        public void user(@CheckForNull String userId) {
+            this.userId = userId;
+        }
+
+        public void succeeded() {
+            failure = null;
+        }
+
+        public void failed(@NonNull String cause) {
+            failure = cause;
+        }
+
+        public void failed(@NonNull Throwable cause) {
+            failure = causeOf(cause);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            operation.stats.inFlight.decrementAndGet();
+            operation.stats.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), failure);
+            if (event != null) {
+                event.end();
+                // only fill in the event when it is recorded, so that it costs next to nothing otherwise
+                if (event.shouldCommit()) {
+                    event.operation = operation.metricName;
+                    event.endpoint = operation.endpoint;
+                    event.outcome = failure == null ? "success" : failure;
+                    event.userIdHash = hash(userId);
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a hash identifying the user in traces without revealing who they are.
+     *     It is keyed with a secret generated when Jenkins starts, so that it cannot be reversed by hashing candidate
+     *     user names, and only identifies the same user within the traces of one run.
+     */
+    @CheckForNull
+    static String hash(@CheckForNull String userId) {
+        if (userId == null) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance(HashKey.ALGORITHM);
+            mac.init(HashKey.KEY);
+            byte[] digest = mac.doFinal(userId.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(HashKey.ALGORITHM + " is always available", e);
+        }
+    }
+
+    /**
+     * The key of {@link #hash}, only generated once a user is traced.
+     */
+    private static final class HashKey {
+
+        static final String ALGORITHM = "HmacSHA256";
+
+        static final SecretKey KEY;
+
+        static {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            KEY = new SecretKeySpec(key, ALGORITHM);
+        }
+    }
+
+    public interface OperationMXBean {
+
+        long getCount();
+
+        int getInFlight();
+
+        long getSuccesses();
+
+        long getFailures();
+
+        /**
+         * @return the number of failures by cause.
+         */
+        Map<String, Long> getFailuresByCause();
+
+        double getMeanMillis();
+
+        /**
+         * @return the number of occurrences that took at most the given number of milliseconds, keyed by
+         *     {@code le_<millis>} and {@code le_inf}.
+         */
+        Map<String, Long> getLatencyHistogram();
+
+        long getP50Millis();
+
+        long getP95Millis();
+
+        long getP99Millis();
+    }
+
+    private static final class OperationStats implements OperationMXBean {
+
+        /**
+         * Upper bounds of the latency buckets, in milliseconds.
+         */
+        private static final long[] BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000};
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final LongAdder successes = new LongAdder();
+
+        private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+        private final LongAdder totalMillis = new LongAdder();
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+        OperationStats() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long millis, String failure) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            totalMillis.add(millis);
+            if (failure == null) {
+                successes.increment();
+            } else {
+                failures.computeIfAbsent(failure, f -> new LongAdder()).increment();
+            }
+        }
+
+        @Override
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getSuccesses() {
+            return successes.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        @Override
+        public Map<String, Long> getFailuresByCause() {
+            Map<String, Long> byCause = new TreeMap<>();
+            failures.forEach((cause, count) -> byCause.put(cause, count.sum()));
+            return byCause;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) totalMillis.sum() / count;
+        }
+
+        @Override
+        public Map<String, Long> getLatencyHistogram() {
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                histogram.put(i < BOUNDS.length ? "le_" + BOUNDS[i] : "le_inf", cumulative);
+            }
+            return histogram;
+        }
+
+        @Override
+        public long getP50Millis() {
+            return percentile(50);
+        }
+
+        @Override
+        public long getP95Millis() {
+            return percentile(95);
+        }
+
+        @Override
+        public long getP99Millis() {
+            return percentile(99);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile, or {@code -1} if there is none.
+         */
+        private long percentile(int percent) {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            long rank = (count * percent + 99) / 100;
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank && count > 0) {
+                    return i < BOUNDS.length ? BOUNDS[i] : Long.MAX_VALUE;
+                }
+            }
+            return -1;
+        }
+    }
+
+    public interface CacheMXBean {
+
+        long getHits();
+
+        long getMisses();
+
+        double getHitRatio();
+    }
+
+    private static final class CacheStats implements CacheMXBean {
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        @Override
+        public long getHits() {
+            return hits.sum();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        @Override
+        public double getHitRatio() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.oic;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event recording an operation of the authentication pipeline, such as a login, a token refresh
+ * or the retrieval of the provider metadata, so that its latency can be correlated with the rest of the controller.
+ * See {@link OicMetrics.Operation}.
+ */
+@Name("org.jenkinsci.plugins.oic.Operation")
+@Label("OpenID Connect Operation")
+@Category({"Jenkins", "OpenID Connect"})
+@Description("An operation of the OpenID Connect authentication")
+@StackTrace(false)
+final class OicOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Endpoint")
+    @Description("The endpoint of the OpenID provider called, if any")
+    String endpoint;
+
+    @Label("Outcome")
+    @Description("success, or the cause of the failure")
+    String outcome;
+
+    @Label("User Id Hash")
+    @Description("A hash of the id of the user the operation was made for, if known")
+    String userIdHash;
+}
@@ -25,6 +25,7 @@ package org.jenkinsci.plugins.oic;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.oauth2.sdk.GrantType;
@@ -34,16 +35,21 @@ import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
 import com.nimbusds.oauth2.sdk.token.RefreshToken;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.BulkChange;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.Descriptor;
 import hudson.model.Descriptor.FormException;
 import hudson.model.Failure;
 import hudson.model.Saveable;
 import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
 import hudson.security.ChainedServletFilter2;
+import hudson.security.GroupDetails;
 import hudson.security.SecurityRealm;
+import hudson.security.UserMayOrMayNotExistException2;
 import hudson.tasks.Mailer;
 import hudson.util.DescribableList;
 import hudson.util.FormValidation;
@@ -60,6 +66,7 @@ import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.ObjectStreamException;
@@ -70,6 +77,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.text.ParseException;
 import java.time.Clock;
 import java.util.ArrayList;
@@ -78,9 +86,17 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
 import jenkins.model.IdStrategy;
@@ -90,6 +106,7 @@ import jenkins.security.ApiTokenProperty;
 import jenkins.security.FIPS140;
 import jenkins.security.SecurityListener;
 import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.oic.properties.AllowedTokenExpirationClockSkew;
 import org.jenkinsci.plugins.oic.properties.DisableNonce;
@@ -118,6 +135,7 @@ import org.pac4j.core.exception.TechnicalException;
 import org.pac4j.core.exception.http.HttpAction;
 import org.pac4j.core.exception.http.RedirectionAction;
 import org.pac4j.core.http.callback.NoParameterCallbackUrlResolver;
+import org.pac4j.core.profile.UserProfile;
 import org.pac4j.core.profile.creator.ProfileCreator;
 import org.pac4j.jee.context.JEEContextFactory;
 import org.pac4j.jee.context.JEEFrameworkParameters;
@@ -135,8 +153,9 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.util.Assert;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -200,17 +219,13 @@ public class OicSecurityRealm extends SecurityRealm {
     private transient String userInfoServerUrl;
 
     private String userNameField = "sub";
-    private transient Expression<Object> userNameFieldExpr = null;
     private String tokenFieldToCheckKey = null;
-    private transient Expression<Object> tokenFieldToCheckExpr = null;
     private String tokenFieldToCheckValue = null;
     private String fullNameFieldName = null;
-    private transient Expression<Object> fullNameFieldExpr = null;
     private String emailFieldName = null;
-    private transient Expression<Object> emailFieldExpr = null;
     private String groupsFieldName = null;
-    private transient Expression<Object> groupsFieldExpr = null;
-    private transient Expression<Object> avatarFieldExpr = null;
+    /** The mapping of the fields above, compiled on first use after any of them changed. */
+    private transient volatile ClaimsMapper claimsMapper = null;
     private transient String simpleGroupsFieldName = null;
     private transient String nestedGroupFieldName = null;
 
@@ -325,6 +340,53 @@ public class OicSecurityRealm extends SecurityRealm {
      */
     private static final Clock CLOCK = Clock.systemUTC();
 
+    /** Paths of the static resources served by Jenkins, which are not subject to the token expiration check.
+     */
+    private static final List<String> STATIC_RESOURCE_PREFIXES =
+            List.of("/static/", "/adjuncts/", "/images/", "/css/", "/scripts/", "/plugin/", "/favicon.ico");
+
+    /** Time during which the outcome of a successful token refresh is reused by the other requests of the same user
+     * that were still holding the expired credentials.
+     */
+    private static final long TOKEN_REFRESH_GRACE_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".tokenRefreshGraceMillis", 10_000L);
+
+    /** Maximum time a request waits for a token refresh made by another request of the same user, which is otherwise
+     * bounded by the timeouts of the calls made by the refresh.
+     */
+    private static final long TOKEN_REFRESH_WAIT_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".tokenRefreshWaitMillis", 30_000L);
+
+    /** Time for which the authorities granted to a user at login are reported for them outside of a login, such as
+     * for API token requests or builds running as that user.
+     */
+    static final long AUTHORITIES_MAX_AGE_MILLIS = SystemProperties.getLong(
+            OicSecurityRealm.class.getName() + ".authoritiesMaxAgeMillis", TimeUnit.DAYS.toMillis(1));
+
+    /** Maximum number of users whose claims are remembered between their token refreshes.
+     */
+    private static final int MAX_KNOWN_USERS = 10_000;
+
+    /** The error of a token response, as reported by pac4j.
+     */
+    private static final Pattern TOKEN_ERROR_PATTERN = Pattern.compile("Bad token response, error=([^,\\s]*)");
+
+    /** The errors with which the token endpoint tells that it is failing rather than rejecting the request: none at
+     * all (as in the error pages of the proxies in front of a failing provider) and the OAuth errors meant for it.
+     */
+    private static final Set<String> TOKEN_ENDPOINT_ERRORS =
+            Set.of("", "null", "server_error", "temporarily_unavailable");
+
+    /** Number of consecutive failures of the token endpoint after which token refreshes fail fast.
+     */
+    private static final int TOKEN_ENDPOINT_FAILURE_THRESHOLD =
+            SystemProperties.getInteger(OicSecurityRealm.class.getName() + ".tokenEndpointFailureThreshold", 5);
+
+    /** Time during which token refreshes fail fast before the token endpoint is probed again.
+     */
+    private static final long TOKEN_ENDPOINT_OPEN_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".tokenEndpointOpenMillis", 30_000L);
+
     /** Runtime context to compile JMESPath
      */
     private static final JmesPath<Object> JMESPATH = new JcfRuntime(
@@ -335,6 +397,11 @@ public class OicSecurityRealm extends SecurityRealm {
      */
     private transient ProxyAwareResourceRetriever proxyAwareResourceRetriever;
 
+    /**
+     * The provider signing keys, shared by all the clients built by this realm.
+     */
+    private transient JwksKeyCache jwksKeyCache;
+
     /**
      * @deprecated Use @{link LoginQueryParameters} property instead.
      */
@@ -347,6 +414,64 @@ public class OicSecurityRealm extends SecurityRealm {
     @Deprecated
     private transient List<LogoutQueryParameter> logoutQueryParameters;
 
+    /**
+     * Client used by the login and logout flows, see {@link #getOidcClient()}.
+     */
+    private transient volatile BuiltOidcClient oidcClient;
+
+    /**
+     * Client used by the token refresh flow, see {@link #getOidcClient(boolean)}.
+     */
+    private transient volatile BuiltOidcClient refreshOidcClient;
+
+    /**
+     * The token refresh in progress or recently succeeded for each user, keyed by {@link IdStrategy#keyFor(String)}.
+     */
+    private transient Map<String, TokenRefresh> tokenRefreshes = new ConcurrentHashMap<>();
+
+    /**
+     * Refreshes the credentials of active users ahead of their expiry, if enabled.
+     */
+    @CheckForNull
+    private transient CredentialsRefreshScheduler credentialsRefreshScheduler =
+            CredentialsRefreshScheduler.create(this);
+
+    /**
+     * When the credentials of each user expire, so that most requests are let through without loading the user.
+     */
+    private transient CredentialsExpiryIndex credentialsExpiryIndex = new CredentialsExpiryIndex();
+
+    /**
+     * The latest authentication of each user refreshed in the background, keyed by {@link IdStrategy#keyFor(String)},
+     * so that it can replace the one held by their session. It is removed once picked up by a request, and when the
+     * user logs in again, logs out or is deleted.
+     */
+    private transient Map<String, Authentication> refreshedAuthentications = new ConcurrentHashMap<>();
+
+    /**
+     * Makes token refreshes fail fast while the token endpoint of the provider is failing.
+     */
+    private transient CircuitBreaker tokenEndpointCircuitBreaker = createTokenEndpointCircuitBreaker();
+
+    /**
+     * Lets users keep their session while the provider is unreachable, if enabled.
+     */
+    @CheckForNull
+    private transient OutageGracePeriods outageGracePeriods = OutageGracePeriods.create(this);
+
+    /**
+     * What each user was made of by its last login or token refresh, keyed by {@link IdStrategy#keyFor(String)}, so
+     * that the token refreshes which find the same claims only have to replace the credentials. Users are forgotten
+     * when they log out or are deleted, and once they have not been seen for {@link #AUTHORITIES_MAX_AGE_MILLIS}.
+     */
+    private transient Map<String, KnownUser> knownUsers = new ConcurrentHashMap<>();
+
+    /**
+     * Retrieves the user info only when the ID token is not enough, if enabled.
+     */
+    @CheckForNull
+    private transient UserInfoRetriever userInfoRetriever = UserInfoRetriever.create();
+
     @DataBoundConstructor
     public OicSecurityRealm(
             String clientId,
@@ -367,8 +492,6 @@ public class OicSecurityRealm extends SecurityRealm {
         this.serverConfiguration = serverConfiguration;
         this.userIdStrategy = userIdStrategy;
         this.groupIdStrategy = groupIdStrategy;
-        this.avatarFieldExpr =
-                compileJMESPath("picture", "avatar field"); // Default on OIDC spec, part of profile claim
     }
 
     @SuppressWarnings("deprecated")
@@ -376,6 +499,14 @@ public class OicSecurityRealm extends SecurityRealm {
         if (properties == null) {
             properties = new DescribableList<>(Saveable.NOOP);
         }
+        tokenRefreshes = new ConcurrentHashMap<>();
+        credentialsRefreshScheduler = CredentialsRefreshScheduler.create(this);
+        credentialsExpiryIndex = new CredentialsExpiryIndex();
+        refreshedAuthentications = new ConcurrentHashMap<>();
+        tokenEndpointCircuitBreaker = createTokenEndpointCircuitBreaker();
+        outageGracePeriods = OutageGracePeriods.create(this);
+        knownUsers = new ConcurrentHashMap<>();
+        userInfoRetriever = UserInfoRetriever.create();
         // Fail if migrating to a FIPS non-compliant config
         if (FIPS140.useCompliantAlgorithms() && isDisableSslVerification()) {
             throw new IllegalStateException(Messages.OicSecurityRealm_DisableSslVerificationFipsMode());
@@ -430,8 +561,6 @@ public class OicSecurityRealm extends SecurityRealm {
             this.setGroupsFieldName(this.groupsFieldName);
         }
         // ensure Field JMESPath are computed
-        this.avatarFieldExpr =
-                compileJMESPath("picture", "avatar field"); // Default on OIDC spec, part of profile claim
         this.setUserNameField(this.userNameField);
         this.setEmailFieldName(this.emailFieldName);
         this.setFullNameFieldName(this.fullNameFieldName);
@@ -491,6 +620,18 @@ public class OicSecurityRealm extends SecurityRealm {
         return userIdStrategy == null || groupIdStrategy == null;
     }
 
+    /**
+     * @return the circuit breaker guarding the calls made to the token endpoint to refresh credentials.
+     */
+    @Restricted(NoExternalUse.class)
+    public CircuitBreaker getTokenEndpointCircuitBreaker() {
+        return tokenEndpointCircuitBreaker;
+    }
+
+    private static CircuitBreaker createTokenEndpointCircuitBreaker() {
+        return new CircuitBreaker("token", TOKEN_ENDPOINT_FAILURE_THRESHOLD, TOKEN_ENDPOINT_OPEN_MILLIS, CLOCK::millis);
+    }
+
     @Override
     public IdStrategy getUserIdStrategy() {
         if (userIdStrategy != null) {
@@ -564,6 +705,7 @@ public class OicSecurityRealm extends SecurityRealm {
     @DataBoundSetter
     public void setProperties(List<OidcProperty> properties) throws IOException {
         this.properties.replaceBy(properties);
+        invalidateOidcClients();
     }
 
     @PostConstruct
@@ -571,6 +713,9 @@ public class OicSecurityRealm extends SecurityRealm {
     public void createProxyAwareResourceRetriver() {
         proxyAwareResourceRetriever =
                 ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(isDisableSslVerification());
+        proxyAwareResourceRetriever.setSnapshotStore(ResourceSnapshotStore.get());
+        jwksKeyCache = new JwksKeyCache(proxyAwareResourceRetriever);
+        invalidateOidcClients();
     }
 
     ProxyAwareResourceRetriever getResourceRetriever() {
@@ -578,8 +723,8 @@ public class OicSecurityRealm extends SecurityRealm {
     }
 
     private OidcConfiguration buildOidcConfiguration() {
-        // TODO cache this and use the well known if available.
-        OidcConfiguration conf = new CustomOidcConfiguration(this.isDisableSslVerification());
+        // TODO use the well known if available.
+        CustomOidcConfiguration conf = new CustomOidcConfiguration(this.isDisableSslVerification());
         conf.setClientId(clientId);
         conf.setSecret(clientSecret.getPlainText());
 
@@ -593,6 +738,11 @@ public class OicSecurityRealm extends SecurityRealm {
             conf.setScope(oidcProviderMetadata.getScopes().toString());
         }
         conf.setResourceRetriever(getResourceRetriever());
+        conf.setJwksKeyCache(jwksKeyCache);
+        if (userInfoRetriever != null) {
+            // the realm calls the userinfo endpoint itself, when the ID token is not enough
+            conf.setCallUserInfoEndpoint(false);
+        }
         return conf;
     }
 
@@ -618,16 +768,88 @@ public class OicSecurityRealm extends SecurityRealm {
         return client;
     }
 
+    /**
+     * Obtain the client used by the login and logout flows.
+     * The client is built and initialized once, and then shared by all requests until either the realm configuration
+     * or the provider metadata changes.
+     */
+    @Restricted(NoExternalUse.class) // exposed for testing only
+    protected OidcClient getOidcClient() {
+        return getOidcClient(false);
+    }
+
+    /**
+     * Obtain a shared client, building it if there is none yet or if the one we have is out of date.
+     * @param forRefresh {@code true} to obtain the client used for the refresh flow, which differs in its nonce
+     *     handling.
+     */
+    private OidcClient getOidcClient(boolean forRefresh) {
+        Object providerMetadataVersion = serverConfiguration.getProviderMetadataVersion();
+        List<OidcProperty> currentProperties = properties.toList();
+        String callbackUrl = buildOAuthRedirectUrl();
+        BuiltOidcClient built = forRefresh ? refreshOidcClient : oidcClient;
+        if (built != null && built.isBuiltFrom(providerMetadataVersion, currentProperties, callbackUrl)) {
+            return built.client();
+        }
+        synchronized (this) {
+            built = forRefresh ? refreshOidcClient : oidcClient;
+            if (built == null || !built.isBuiltFrom(providerMetadataVersion, currentProperties, callbackUrl)) {
+                OidcClient client = buildOidcClient();
+                if (forRefresh) {
+                    // PAC4J maintains the nonce even though servers should not respond with an id token containing the
+                    // nonce https://openid.net/specs/openid-connect-core-1_0.html#RefreshTokenResponse
+                    // it SHOULD NOT have a nonce Claim, even when the ID Token issued at the time of the original
+                    // authentication contained nonce;
+                    // however, if it is present, its value MUST be the same as in the ID Token issued at the time of
+                    // the original authentication
+                    // by default we will strip out the nonce unless the user has opted into it.
+                    var configuration = client.getConfiguration();
+                    configuration.setUseNonce(configuration.isUseNonce() && checkNonceInRefreshFlow);
+                }
+                // initialize before publishing so request threads only ever see a fully built client
+                client.init();
+                built = new BuiltOidcClient(providerMetadataVersion, currentProperties, callbackUrl, client);
+                if (forRefresh) {
+                    refreshOidcClient = built;
+                } else {
+                    oidcClient = built;
+                }
+            }
+            return built.client();
+        }
+    }
+
+    /**
+     * Discard any shared clients so that they are rebuilt from the current configuration on next use.
+     */
+    private void invalidateOidcClients() {
+        oidcClient = null;
+        refreshOidcClient = null;
+    }
+
+    /**
+     * An initialized {@link OidcClient} along with the inputs it was built from.
+     */
+    private record BuiltOidcClient(
+            Object providerMetadataVersion, List<OidcProperty> properties, String callbackUrl, OidcClient client) {
+
+        boolean isBuiltFrom(Object providerMetadataVersion, List<OidcProperty> properties, String callbackUrl) {
+            return this.providerMetadataVersion == providerMetadataVersion
+                    && this.properties.equals(properties)
+                    && this.callbackUrl.equals(callbackUrl);
+        }
+    }
+
     @DataBoundSetter
     public void setUserNameField(String userNameField) {
         this.userNameField = Util.fixNull(Util.fixEmptyAndTrim(userNameField), "sub");
-        this.userNameFieldExpr = compileJMESPath(this.userNameField, "user name field");
+        this.claimsMapper = null;
     }
 
     @DataBoundSetter
     public void setTokenFieldToCheckKey(String tokenFieldToCheckKey) {
         this.tokenFieldToCheckKey = Util.fixEmptyAndTrim(tokenFieldToCheckKey);
-        this.tokenFieldToCheckExpr = compileJMESPath(this.tokenFieldToCheckKey, "token field to check");
+        this.claimsMapper = null;
     }
 
     @DataBoundSetter
@@ -638,13 +860,23 @@ public class OicSecurityRealm extends SecurityRealm {
     @DataBoundSetter
     public void setFullNameFieldName(String fullNameFieldName) {
         this.fullNameFieldName = Util.fixEmptyAndTrim(fullNameFieldName);
-        this.fullNameFieldExpr = compileJMESPath(this.fullNameFieldName, "full name field");
+        this.claimsMapper = null;
     }
 
     @DataBoundSetter
     public void setEmailFieldName(String emailFieldName) {
         this.emailFieldName = Util.fixEmptyAndTrim(emailFieldName);
-        this.emailFieldExpr = compileJMESPath(this.emailFieldName, "email field");
+        this.claimsMapper = null;
+    }
+
+    private ClaimsMapper claimsMapper() {
+        ClaimsMapper mapper = claimsMapper;
+        if (mapper == null) {
+            mapper = new ClaimsMapper(
+                    userNameField, emailFieldName, fullNameFieldName, groupsFieldName, tokenFieldToCheckKey);
+            claimsMapper = mapper;
+        }
+        return mapper;
     }
 
     protected static Expression<Object> compileJMESPath(String str, String logComment) {
@@ -669,7 +901,7 @@ public class OicSecurityRealm extends SecurityRealm {
     @DataBoundSetter
     public void setGroupsFieldName(String groupsFieldName) {
         this.groupsFieldName = Util.fixEmptyAndTrim(groupsFieldName);
-        this.groupsFieldExpr = compileJMESPath(this.groupsFieldName, "groups field");
+        this.claimsMapper = null;
     }
 
     @DataBoundSetter
@@ -763,7 +995,38 @@ public class OicSecurityRealm extends SecurityRealm {
                 }
                 throw new BadCredentialsException("Unexpected authentication type: " + authentication);
             }
-        });
+        }, this::loadUserFromAuthorities);
+    }
+
+    /**
+     * Report a user with the authorities it was granted when it last logged in, so that API token requests and builds
+     * running as that user see its groups without asking the provider.
+     * Users we know nothing recent about are reported as possibly existing, which only grants them
+     * {@link SecurityRealm#AUTHENTICATED_AUTHORITY2}.
+     */
+    private UserDetails loadUserFromAuthorities(String username) throws UsernameNotFoundException {
+        UserAuthoritiesStore store = UserAuthoritiesStore.get();
+        Set<GrantedAuthority> authorities =
+                store == null ? null : store.get(username, CLOCK.millis(), AUTHORITIES_MAX_AGE_MILLIS);
+        if (authorities == null) {
+            throw new UserMayOrMayNotExistException2("No recent login of " + username);
+        }
+        return new OicUserDetails(username, authorities);
+    }
+
+    @Override
+    public GroupDetails loadGroupByGroupname2(String groupname, boolean fetchMembers)
+            throws UsernameNotFoundException {
+        UserAuthoritiesStore store = UserAuthoritiesStore.get();
+        if (store != null && store.isKnown(groupname)) {
+            return new GroupDetails() {
+                @Override
+                public String getName() {
+                    return groupname;
+                }
+            };
+        }
+        return super.loadGroupByGroupname2(groupname, fetchMembers);
     }
 
     /**
@@ -803,8 +1066,20 @@ public class OicSecurityRealm extends SecurityRealm {
     @Restricted(DoNotUse.class) // stapler only
     public void doCommenceLogin(@QueryParameter String from, @Header("Referer") final String referer)
             throws URISyntaxException {
+        OicMetrics.Sample sample = OicMetrics.Operation.COMMENCE_LOGIN.start();
+        try {
+            commenceLogin(from, referer);
+            sample.succeeded();
+        } catch (URISyntaxException | RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+        }
+    }
 
-        OidcClient client = buildOidcClient();
+    private void commenceLogin(String from, String referer) throws URISyntaxException {
+        OidcClient client = getOidcClient();
         // add the extra params for the client...
         final String redirectOnFinish = getValidRedirectUrl(from != null ? from : referer);
 
@@ -821,14 +1096,11 @@ public class OicSecurityRealm extends SecurityRealm {
         JEEHttpActionAdapter.INSTANCE.adapt(redirectionAction, webContext);
     }
 
-    private boolean failedCheckOfTokenField(JWT idToken) throws ParseException {
+    private boolean failedCheckOfTokenField(ClaimsMapper.MappedClaims claims) {
         if (tokenFieldToCheckKey == null || tokenFieldToCheckValue == null) {
             return false;
         }
-        if (idToken == null) {
-            return true;
-        }
-        String value = getStringField(idToken.getJWTClaimsSet().getClaims(), tokenFieldToCheckExpr);
+        String value = claims.tokenFieldToCheck();
         if (value == null) {
             return true;
         }
@@ -836,10 +1108,34 @@ public class OicSecurityRealm extends SecurityRealm {
     }
 
     private void loginAndSetUserData(
-            String userName, JWT idToken, Map<String, Object> userInfo, OicCredentials credentials)
-            throws IOException, ParseException {
+            String userName, ClaimsMapper.MappedClaims claims, OicCredentials credentials, HttpServletRequest request)
+            throws IOException {
+
+        UsernamePasswordAuthenticationToken token = setUserData(userName, claims, credentials, request);
+        SecurityContextHolder.getContext().setAuthentication(token);
+        if (credentialsRefreshScheduler != null || outageGracePeriods != null) {
+            // a new login supersedes whatever was refreshed in the background
+            refreshedAuthentications.remove(User.idStrategy().keyFor(userName));
+        }
 
-        List<GrantedAuthority> grantedAuthorities = determineAuthorities(idToken, userInfo);
+        OicUserDetails userDetails = new OicUserDetails(userName, token.getAuthorities());
+        SecurityListener.fireAuthenticated2(userDetails);
+        SecurityListener.fireLoggedIn(userName);
+    }
+
+    /**
+     * Update the user with the latest information from the provider.
+     * @param request the request being processed, or {@code null} when called outside of any request.
+     * @return the authentication of the user, with its up to date authorities.
+     */
+    private UsernamePasswordAuthenticationToken setUserData(
+            String userName,
+            ClaimsMapper.MappedClaims claims,
+            OicCredentials credentials,
+            @CheckForNull HttpServletRequest request)
+            throws IOException {
+
+        List<GrantedAuthority> grantedAuthorities = determineAuthorities(claims);
         if (LOGGER.isLoggable(Level.FINEST)) {
             StringBuilder grantedAuthoritiesAsString = new StringBuilder(userName);
             grantedAuthoritiesAsString.append(" (");
@@ -851,72 +1147,212 @@ public class OicSecurityRealm extends SecurityRealm {
         }
 
         UsernamePasswordAuthenticationToken token =
-                new UsernamePasswordAuthenticationToken(userName, "", grantedAuthorities);
+                new OicAuthenticationToken(userName, AuthoritySets.of(grantedAuthorities));
+        long now = CLOCK.millis();
+        UserAuthoritiesStore authoritiesStore = UserAuthoritiesStore.get();
+        if (authoritiesStore != null) {
+            authoritiesStore.put(userName, grantedAuthorities, now);
+        }
 
-        SecurityContextHolder.getContext().setAuthentication(token);
+        User user = User.get2(token);
+        if (user == null) {
+            // should not happen
+            throw new IOException("Cannot set OIDC property on anonymous user");
+        }
+        // apply all the updates with a single save, if anything changed at all
+        try (BulkChange bc = new BulkChange(user)) {
+            boolean changed = false;
+            String email = claims.email();
+            if (email != null) {
+                Mailer.UserProperty mailerProperty = user.getProperty(Mailer.UserProperty.class);
+                if (mailerProperty == null || !email.equals(mailerProperty.getExplicitlyConfiguredAddress())) {
+                    user.addProperty(new Mailer.UserProperty(email));
+                    changed = true;
+                }
+            }
 
+            String fullName = claims.fullName();
+            if (fullName != null && !fullName.equals(user.getFullName())) {
+                user.setFullName(fullName);
+                changed = true;
+            }
+
+            // Set avatar if possible
+            String avatarUrl = claims.avatarUrl();
+            OicAvatarProperty currentAvatarProperty = user.getProperty(OicAvatarProperty.class);
+            if (currentAvatarProperty == null || !Objects.equals(avatarUrl, currentAvatarProperty.getAvatarUrl())) {
+                OicAvatarProperty oicAvatarProperty;
+                if (avatarUrl != null) {
+                    LOGGER.finest(() -> "Avatar url is: " + avatarUrl);
+                    OicAvatarProperty.AvatarImage avatarImage = new OicAvatarProperty.AvatarImage(avatarUrl);
+                    oicAvatarProperty = new OicAvatarProperty(avatarImage);
+                } else {
+                    LOGGER.finest(() -> "No avatar URL found for user " + user.getId()
+                            + ". Ensure to remove existing avatar");
+                    oicAvatarProperty = new OicAvatarProperty(null);
+                }
+                user.addProperty(oicAvatarProperty);
+                changed = true;
+            }
+
+            OicCredentialsStore credentialsStore = OicCredentialsStore.get();
+            OicCredentials currentCredentials = credentialsStore.load(user, request);
+            if (currentCredentials == null || !currentCredentials.isSameAs(credentials)) {
+                changed |= setCredentials(credentialsStore, user, credentials, request);
+            }
+
+            if (changed) {
+                commit(bc, userName);
+            }
+        }
+        if (credentialsRefreshScheduler != null) {
+            credentialsRefreshScheduler.schedule(userName, credentials);
+        }
+        rememberUser(User.idStrategy().keyFor(userName), new KnownUser(claims.fingerprint(), token, now, now));
+        return token;
+    }
+
+    /**
+     * Update a user whose credentials were refreshed, provided that its claims are the same as when it last logged in
+     * or was refreshed: its authorities and properties are then up to date already, only the credentials are replaced.
+     * @param request the request being processed, or {@code null} when called outside of any request.
+     * @return the authentication of the user, or {@code null} if the user is to be updated in full with
+     *     {@link #setUserData}.
+     */
+    @CheckForNull
+    private UsernamePasswordAuthenticationToken setRefreshedCredentials(
+            String userName,
+            ClaimsMapper.MappedClaims claims,
+            OicCredentials credentials,
+            @CheckForNull HttpServletRequest request)
+            throws IOException {
+        String key = User.idStrategy().keyFor(userName);
+        KnownUser known = knownUsers.get(key);
+        long now = CLOCK.millis();
+        if (known == null || known.isStale(now) || !known.isMadeOf(claims.fingerprint())) {
+            OicMetrics.Cache.CLAIMS.miss();
+            return null;
+        }
+        OicMetrics.Cache.CLAIMS.hit();
+        UsernamePasswordAuthenticationToken token = known.authentication();
+        long authoritiesStoredAtMillis = known.authoritiesStoredAtMillis();
+        UserAuthoritiesStore authoritiesStore = UserAuthoritiesStore.get();
+        if (authoritiesStore != null && now - authoritiesStoredAtMillis > AUTHORITIES_MAX_AGE_MILLIS / 2) {
+            // keep reporting the authorities of users who stay active without logging in again
+            authoritiesStore.put(userName, token.getAuthorities(), now);
+            authoritiesStoredAtMillis = now;
+        }
+        knownUsers.replace(key, known, new KnownUser(known.claimsFingerprint(), token, authoritiesStoredAtMillis, now));
         User user = User.get2(token);
         if (user == null) {
             // should not happen
             throw new IOException("Cannot set OIDC property on anonymous user");
         }
-        String email = determineStringField(emailFieldExpr, idToken, userInfo);
-        if (email != null) {
-            user.addProperty(new Mailer.UserProperty(email));
+        try (BulkChange bc = new BulkChange(user)) {
+            if (setCredentials(OicCredentialsStore.get(), user, credentials, request)) {
+                commit(bc, userName);
+            }
+        }
+        if (credentialsRefreshScheduler != null) {
+            credentialsRefreshScheduler.schedule(userName, credentials);
         }
+        return token;
+    }
 
-        String fullName = determineStringField(fullNameFieldExpr, idToken, userInfo);
-        if (fullName != null) {
-            user.setFullName(fullName);
+    private void rememberUser(String key, KnownUser known) {
+        if (knownUsers.size() >= MAX_KNOWN_USERS && !knownUsers.containsKey(key)) {
+            long now = known.seenAtMillis();
+            knownUsers.values().removeIf(k -> k.isStale(now));
+            if (knownUsers.size() >= MAX_KNOWN_USERS) {
+                // its next token refresh updates it in full, as when it is not remembered
+                return;
+            }
         }
+        knownUsers.put(key, known);
+    }
 
-        // Set avatar if possible
-        String avatarUrl = determineStringField(avatarFieldExpr, idToken, userInfo);
-        OicAvatarProperty oicAvatarProperty;
-        if (avatarUrl != null) {
-            LOGGER.finest(() -> "Avatar url is: " + avatarUrl);
-            OicAvatarProperty.AvatarImage avatarImage = new OicAvatarProperty.AvatarImage(avatarUrl);
-            oicAvatarProperty = new OicAvatarProperty(avatarImage);
-        } else {
-            LOGGER.finest(() -> "No avatar URL found for user " + user.getId() + ". Ensure to remove existing avatar");
-            oicAvatarProperty = new OicAvatarProperty(null);
+    /**
+     * Forget what a user was made of, so that its next token refresh updates it in full, when its credentials
+     * expire, so that its next request looks them up, and its authentication refreshed in the background, so that
+     * it is not handed to its next request.
+     */
+    void forgetUser(String userId) {
+        String key = User.idStrategy().keyFor(userId);
+        knownUsers.remove(key);
+        refreshedAuthentications.remove(key);
+        credentialsExpiryIndex.remove(userId);
+    }
+
+    CredentialsExpiryIndex getCredentialsExpiryIndex() {
+        return credentialsExpiryIndex;
+    }
+
+    @CheckForNull
+    Authentication getRefreshedAuthentication(String userId) {
+        return refreshedAuthentications.get(User.idStrategy().keyFor(userId));
+    }
+
+    /**
+     * Replace the credentials of a user, keeping the {@link CredentialsExpiryIndex} up to date whatever the store.
+     * @see OicCredentialsStore#store(User, OicCredentials, HttpServletRequest)
+     */
+    private boolean setCredentials(
+            OicCredentialsStore store, User user, OicCredentials credentials, @CheckForNull HttpServletRequest request)
+            throws IOException {
+        boolean changed = store.store(user, credentials, request);
+        credentialsExpiryIndex.update(user.getId(), credentials.getExpiresAtMillis());
+        return changed;
+    }
+
+    private static void commit(BulkChange bc, String userName) throws IOException {
+        try (OicMetrics.Sample sample = OicMetrics.Operation.USER_SAVE.start()) {
+            sample.user(userName);
+            bc.commit();
+            sample.succeeded();
         }
-        user.addProperty(oicAvatarProperty);
+    }
 
-        user.addProperty(credentials);
+    /**
+     * What a user was made of by its last login or token refresh.
+     * @param claimsFingerprint the {@link ClaimsMapper.MappedClaims#fingerprint() fingerprint} of its claims.
+     * @param authentication its authentication, with the authorities derived from these claims.
+     * @param authoritiesStoredAtMillis when its authorities were last handed to the {@link UserAuthoritiesStore}.
+     * @param seenAtMillis when it last logged in or had its token refreshed.
+     */
+    private record KnownUser(
+            byte[] claimsFingerprint,
+            UsernamePasswordAuthenticationToken authentication,
+            long authoritiesStoredAtMillis,
+            long seenAtMillis) {
 
-        OicUserDetails userDetails = new OicUserDetails(userName, grantedAuthorities);
-        SecurityListener.fireAuthenticated2(userDetails);
-        SecurityListener.fireLoggedIn(userName);
+        boolean isMadeOf(byte[] claimsFingerprint) {
+            return MessageDigest.isEqual(this.claimsFingerprint, claimsFingerprint);
+        }
+
+        boolean isStale(long now) {
+            return now - seenAtMillis > AUTHORITIES_MAX_AGE_MILLIS;
+        }
     }
 
-    private String determineStringField(Expression<Object> fieldExpr, JWT idToken, Map<String, Object> userInfo)
-            throws ParseException {
-        if (fieldExpr != null) {
-            if (userInfo != null) {
-                Object field = fieldExpr.search(userInfo);
-                if (field != null) {
-                    if (field instanceof String) {
-                        String fieldValue = Util.fixEmptyAndTrim((String) field);
-                        if (fieldValue != null) {
-                            return fieldValue;
-                        }
-                    }
-                    // pac4j OIDC client returns URI for some fields like the "picture" field
-                    if (field instanceof URI) {
-                        return ((URI) field).toASCIIString();
-                    }
-                }
+    /**
+     * Forgets the users that are deleted, so that nothing about them outlives them.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class DeletedUserListener extends SaveableListener {
+        @Override
+        public void onDeleted(Saveable o, XmlFile file) {
+            if (!(o instanceof User user)) {
+                return;
             }
-            if (idToken != null) {
-                String fieldValue = Util.fixEmptyAndTrim(
-                        getStringField(idToken.getJWTClaimsSet().getClaims(), fieldExpr));
-                if (fieldValue != null) {
-                    return fieldValue;
-                }
+            if (Jenkins.get().getSecurityRealm() instanceof OicSecurityRealm realm) {
+                realm.forgetUser(user.getId());
+            }
+            UserAuthoritiesStore authoritiesStore = UserAuthoritiesStore.get();
+            if (authoritiesStore != null) {
+                authoritiesStore.remove(user.getId());
             }
         }
-        return null;
     }
 
     protected String getStringField(Object object, Expression<Object> fieldExpr) {
@@ -929,11 +1365,10 @@ public class OicSecurityRealm extends SecurityRealm {
         return null;
     }
 
-    private List<GrantedAuthority> determineAuthorities(JWT idToken, Map<String, Object> userInfo)
-            throws ParseException {
+    List<GrantedAuthority> determineAuthorities(ClaimsMapper.MappedClaims claims) {
         List<GrantedAuthority> grantedAuthorities = new ArrayList<>();
         grantedAuthorities.add(SecurityRealm.AUTHENTICATED_AUTHORITY2);
-        if (this.groupsFieldExpr == null) {
+        if (!claimsMapper().hasGroups()) {
             if (this.groupsFieldName == null) {
                 LOGGER.fine("Not adding groups because groupsFieldName is not set.");
             } else {
@@ -942,15 +1377,8 @@ public class OicSecurityRealm extends SecurityRealm {
             return grantedAuthorities;
         }
 
-        Object groupsObject = null;
-
         // userInfo has precedence when available
-        if (userInfo != null) {
-            groupsObject = this.groupsFieldExpr.search(userInfo);
-        }
-        if (groupsObject == null && idToken != null) {
-            groupsObject = this.groupsFieldExpr.search(idToken.getJWTClaimsSet().getClaims());
-        }
+        Object groupsObject = claims.groups();
         if (groupsObject == null) {
             LOGGER.warning("idToken and userInfo did not contain group field name: " + this.groupsFieldName);
             return grantedAuthorities;
@@ -965,7 +1393,7 @@ public class OicSecurityRealm extends SecurityRealm {
 
         for (String groupName : groupNames) {
             LOGGER.fine("Adding group from UserInfo: " + groupName);
-            grantedAuthorities.add(new SimpleGrantedAuthority(groupName));
+            grantedAuthorities.add(AuthoritySets.intern(groupName));
         }
 
         return grantedAuthorities;
@@ -1022,18 +1450,20 @@ public class OicSecurityRealm extends SecurityRealm {
 
         Assert.notNull(user, "User must not be null");
 
-        OicCredentials credentials = user.getProperty(OicCredentials.class);
+        OicCredentialsStore credentialsStore = OicCredentialsStore.get();
+        OicCredentials credentials = credentialsStore.load(user, req);
 
         if (credentials != null) {
             if (this.logoutFromOpenidProvider
                     && serverConfiguration.toProviderMetadata().getEndSessionEndpointURI() != null) {
                 // This ensures that token will be expired at the right time with API Key calls, but no refresh can be
                 // made.
-                user.addProperty(new OicCredentials(null, null, null, CLOCK.millis()));
+                setCredentials(credentialsStore, user, new OicCredentials(null, null, null, CLOCK.millis()), req);
             }
 
             req.setAttribute(ID_TOKEN_REQUEST_ATTRIBUTE, credentials.getIdToken());
         }
+        forgetUser(user.getId());
 
         super.doLogout(req, rsp);
     }
@@ -1053,7 +1483,7 @@ public class OicSecurityRealm extends SecurityRealm {
     @VisibleForTesting
     Object getStateAttribute() {
         // return null;
-        OidcClient client = buildOidcClient();
+        OidcClient client = getOidcClient();
         FrameworkParameters parameters =
                 new JEEFrameworkParameters(Stapler.getCurrentRequest2(), Stapler.getCurrentResponse2());
         WebContext webContext = JEEContextFactory.INSTANCE.newContext(parameters);
@@ -1126,7 +1556,21 @@ public class OicSecurityRealm extends SecurityRealm {
      * @throws ParseException if the JWT (or other response) could not be parsed.
      */
     public void doFinishLogin(StaplerRequest2 request, StaplerResponse2 response) throws IOException, ParseException {
-        OidcClient client = buildOidcClient();
+        OicMetrics.Sample sample = OicMetrics.Operation.FINISH_LOGIN.start();
+        try {
+            finishLogin(request, response, sample);
+            sample.succeeded();
+        } catch (IOException | ParseException | RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+        }
+    }
+
+    private void finishLogin(StaplerRequest2 request, StaplerResponse2 response, OicMetrics.Sample sample)
+            throws IOException, ParseException {
+        OidcClient client = getOidcClient();
 
         FrameworkParameters parameters = new JEEFrameworkParameters(request, response);
         WebContext webContext = JEEContextFactory.INSTANCE.newContext(parameters);
@@ -1144,24 +1588,25 @@ public class OicSecurityRealm extends SecurityRealm {
             }
 
             CallContext ctx = new CallContext(webContext, sessionStore);
-            Credentials credentials = client.getCredentials(ctx)
+            Credentials extracted = client.getCredentials(ctx)
                     .orElseThrow(() -> new Failure("Could not extract credentials from request"));
-            credentials = client.validateCredentials(ctx, credentials)
+            Credentials credentials = IdpEndpoint.calls(() -> client.validateCredentials(ctx, extracted))
                     .orElseThrow(() -> new Failure("Could not validate credentials from request"));
 
             ProfileCreator profileCreator = client.getProfileCreator();
 
             // creating the profile performs validation of the token
-            OidcProfile profile = (OidcProfile) profileCreator
-                    .create(ctx, credentials)
+            OidcProfile profile = (OidcProfile) IdpEndpoint.calls(() -> profileCreator.create(ctx, credentials))
                     .orElseThrow(() -> new Failure("Could not build user profile"));
 
             AccessToken accessToken = profile.getAccessToken();
             JWT idToken = profile.getIdToken();
             RefreshToken refreshToken = profile.getRefreshToken();
 
-            String username = determineStringField(userNameFieldExpr, idToken, profile.getAttributes());
-            if (failedCheckOfTokenField(idToken)) {
+            ClaimsMapper.MappedClaims claims = mapClaims(idToken, userInfoOf(client, profile, idToken, false));
+            String username = claims.username();
+            sample.user(username);
+            if (failedCheckOfTokenField(claims)) {
                 throw new FailedCheckOfTokenException(client.getConfiguration().findLogoutUrl());
             }
 
@@ -1173,7 +1618,7 @@ public class OicSecurityRealm extends SecurityRealm {
                     CLOCK.millis(),
                     (long) client.getConfiguration().getMaxClockSkew());
 
-            loginAndSetUserData(username, idToken, profile.getAttributes(), oicCredentials);
+            loginAndSetUserData(username, claims, oicCredentials, request);
 
             String redirectUrl = (String) sessionStore
                     .get(webContext, SESSION_POST_LOGIN_REDIRECT_URL_KEY)
@@ -1196,31 +1641,74 @@ public class OicSecurityRealm extends SecurityRealm {
      */
     public boolean handleTokenExpiration(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
             throws IOException {
+        OicMetrics.Sample sample = OicMetrics.Operation.TOKEN_EXPIRATION_CHECK.start();
+        try {
+            boolean proceed = checkTokenExpiration(httpRequest, httpResponse);
+            if (proceed) {
+                sample.succeeded();
+            } else {
+                sample.failed("rejected");
+            }
+            return proceed;
+        } catch (IOException | RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+        }
+    }
+
+    private boolean checkTokenExpiration(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+            throws IOException {
         if (isLogoutRequest(httpRequest)) {
             // No need to refresh token when logging out
             return true;
         }
+        if (isStaticResourceRequest(httpRequest)) {
+            // static resources do not need a valid token
+            return true;
+        }
 
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            return true;
+        }
+        if (credentialsExpiryIndex.isValid(authentication.getName(), CLOCK.millis())) {
+            // the common case, answered without loading the user
+            OicMetrics.Cache.CREDENTIALS_EXPIRY.hit();
+            pickUpBackgroundRefresh(authentication.getName(), authentication);
+            return true;
+        }
+        OicMetrics.Cache.CREDENTIALS_EXPIRY.miss();
+
         User user = User.get2(authentication);
         if (user == null) {
             return true;
         }
 
-        OicCredentials credentials = user.getProperty(OicCredentials.class);
+        OicCredentials credentials = OicCredentialsStore.get().load(user, httpRequest);
 
         if (credentials == null) {
             return true;
         }
+        // spare the next requests of the user this lookup, the index is empty after a restart
+        credentialsExpiryIndex.update(user.getId(), credentials.getExpiresAtMillis());
 
         if (isValidApiTokenRequest(httpRequest, user)) {
             return true;
         }
 
+        pickUpBackgroundRefresh(user.getId(), authentication);
+
         if (isExpired(credentials)) {
             if (canRefreshToken(credentials)) {
+                if (outageGracePeriods != null
+                        && outageGracePeriods.isInGracePeriod(user.getId(), credentials, CLOCK.millis())) {
+                    // the credentials are being refreshed in the background until the provider is available again
+                    return true;
+                }
                 LOGGER.log(Level.FINEST, "Attempting to refresh credential for user: {0}", user.getId());
-                boolean retVal = refreshExpiredToken(user.getId(), credentials, httpRequest, httpResponse);
+                boolean retVal = refreshExpiredTokenOnce(user.getId(), credentials, httpRequest, httpResponse);
                 LOGGER.log(Level.FINEST, "Refresh credential for user returned {0}", retVal);
                 return retVal;
             } else if (!isTokenExpirationCheckDisabled()) {
@@ -1236,6 +1724,36 @@ public class OicSecurityRealm extends SecurityRealm {
         return request.getRequestURI().endsWith("/logout");
     }
 
+    boolean isStaticResourceRequest(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        for (String prefix : STATIC_RESOURCE_PREFIXES) {
+            // only look up the context path for the few candidate requests
+            if (uri.contains(prefix) && uri.startsWith(prefix, request.getContextPath().length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * When refreshing credentials ahead of their expiry, record the activity of the user and pick up the
+     * authentication refreshed in the background if any.
+     */
+    private void pickUpBackgroundRefresh(String userId, Authentication authentication) {
+        if (credentialsRefreshScheduler == null && outageGracePeriods == null) {
+            return;
+        }
+        if (credentialsRefreshScheduler != null) {
+            credentialsRefreshScheduler.markActive(userId);
+        }
+        // once picked up, the refreshed authentication lives on in the session of the request
+        Authentication refreshed = refreshedAuthentications.remove(User.idStrategy().keyFor(userId));
+        if (refreshed != null && refreshed != authentication) {
+            // the credentials have been refreshed in the background, pick up the up to date authorities
+            SecurityContextHolder.getContext().setAuthentication(refreshed);
+        }
+    }
+
     boolean isValidApiTokenRequest(HttpServletRequest httpRequest, User user) {
         if (isAllowTokenAccessWithoutOicSession()) {
             // check if this is a valid api token based request
@@ -1255,8 +1773,9 @@ public class OicSecurityRealm extends SecurityRealm {
     }
 
     boolean canRefreshToken(OicCredentials credentials) {
-        return serverConfiguration.toProviderMetadata().getGrantTypes() != null
-                && serverConfiguration.toProviderMetadata().getGrantTypes().contains(GrantType.REFRESH_TOKEN)
+        List<GrantType> grantTypes = serverConfiguration.toProviderMetadata().getGrantTypes();
+        return grantTypes != null
+                && grantTypes.contains(GrantType.REFRESH_TOKEN)
                 && !Strings.isNullOrEmpty(credentials.getRefreshToken());
     }
 
@@ -1277,6 +1796,190 @@ public class OicSecurityRealm extends SecurityRealm {
         return CLOCK.millis() >= credentials.getExpiresAtMillis();
     }
 
+    /**
+     * Refresh the expired credentials of a user, making sure that concurrent requests of that user do not each use the
+     * same refresh token, which would fail for all but one of them when the provider rotates refresh tokens.
+     * The first request performs the refresh, while the others (including those arriving shortly after it succeeded
+     * but still holding the expired credentials) wait for and reuse its outcome.
+     */
+    private boolean refreshExpiredTokenOnce(
+            String expectedUsername,
+            OicCredentials credentials,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+            throws IOException {
+        String key = User.idStrategy().keyFor(expectedUsername);
+        TokenRefresh mine = new TokenRefresh(credentials, new CompletableFuture<>());
+        TokenRefresh refresh = tokenRefreshes.compute(
+                key, (k, current) -> current != null && current.isFor(credentials) ? current : mine);
+        if (refresh != mine) {
+            return awaitTokenRefresh(expectedUsername, refresh, httpRequest, httpResponse);
+        }
+        Authentication refreshed = null;
+        AnswerRecordingResponse recordingResponse =
+                httpResponse == null ? null : new AnswerRecordingResponse(httpResponse);
+        try {
+            if (refreshExpiredToken(expectedUsername, credentials, httpRequest, recordingResponse)) {
+                refreshed = SecurityContextHolder.getContext().getAuthentication();
+            }
+            return refreshed != null;
+        } finally {
+            completeTokenRefresh(
+                    key, mine, refreshed, recordingResponse == null ? Answer.NONE : recordingResponse.answer);
+        }
+    }
+
+    /**
+     * Hand the outcome of a token refresh to the requests waiting for it.
+     * @param refreshed the refreshed authentication, or {@code null} if the refresh failed.
+     * @param answer how the request that made the refresh was answered if it failed, or {@code null} if the refresh
+     *     was not made by a request.
+     */
+    private void completeTokenRefresh(
+            String key, TokenRefresh refresh, @CheckForNull Authentication refreshed, @CheckForNull Answer answer) {
+        if (refreshed == null) {
+            // the failure may be transient, the next requests try again
+            tokenRefreshes.remove(key, refresh);
+            refresh.result().complete(new TokenRefreshOutcome(null, answer));
+            return;
+        }
+        refresh.result().complete(new TokenRefreshOutcome(refreshed, answer));
+        // stragglers holding the expired credentials may still arrive shortly, so keep the outcome for them
+        Timer.get()
+                .schedule(
+                        () -> tokenRefreshes.remove(key, refresh),
+                        TOKEN_REFRESH_GRACE_MILLIS,
+                        TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wait for a token refresh made by another request of the same user and reuse its outcome: the refreshed
+     * authentication if it succeeded, the same answer as the request that made it otherwise.
+     */
+    private boolean awaitTokenRefresh(
+            String expectedUsername,
+            TokenRefresh refresh,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+            throws IOException {
+        LOGGER.log(Level.FINEST, "Waiting for the credential refresh in progress for user: {0}", expectedUsername);
+        TokenRefreshOutcome outcome;
+        try {
+            outcome = refresh.result().get(tokenRefreshWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = null;
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.FINE, "Failed to wait for the credential refresh of user " + expectedUsername, e);
+            outcome = null;
+        }
+        if (outcome == null) {
+            // the refresh is taking longer than it could succeed in, as when its calls to the provider time out
+            if (httpResponse != null) {
+                httpResponse.sendError(
+                        HttpServletResponse.SC_UNAUTHORIZED, Messages.OicSecurityRealm_TokenRefreshFailure());
+            }
+            return false;
+        }
+        if (outcome.authentication() != null) {
+            SecurityContextHolder.getContext().setAuthentication(outcome.authentication());
+            return true;
+        }
+        if (outcome.answer() == null) {
+            // a background refresh failed, with no answer to share, the failed refresh is already forgotten
+            return refreshExpiredTokenOnce(expectedUsername, refresh.expired(), httpRequest, httpResponse);
+        }
+        if (httpResponse != null) {
+            outcome.answer().send(httpRequest, httpResponse);
+        }
+        return false;
+    }
+
+    /**
+     * @return the time a token refresh may take before the calls it makes to the provider time out.
+     */
+    private long tokenRefreshWaitMillis() {
+        var configuration = getOidcClient(true).getConfiguration();
+        int connectTimeout = configuration.getConnectTimeout();
+        int readTimeout = configuration.getReadTimeout();
+        long waitMillis = IdpEndpoint.TOKEN.maxCallMillis(connectTimeout, readTimeout);
+        if (serverConfiguration.toProviderMetadata().getUserInfoEndpointURI() != null) {
+            // the claims may be retrieved from the userinfo endpoint along with the refresh
+            waitMillis += IdpEndpoint.USERINFO.maxCallMillis(connectTimeout, readTimeout);
+        }
+        return Math.min(waitMillis, TOKEN_REFRESH_WAIT_MILLIS);
+    }
+
+    /**
+     * A token refresh which is either in progress or succeeded recently enough for its outcome to be reused.
+     * @param expired the credentials being refreshed.
+     * @param result completed with the outcome of the refresh.
+     */
+    private record TokenRefresh(OicCredentials expired, CompletableFuture<TokenRefreshOutcome> result) {
+
+        /**
+         * @return {@code true} if this refresh renews the given credentials.
+         */
+        boolean isFor(OicCredentials credentials) {
+            // the requests of a user all see the same credentials instance until it is replaced by the refresh
+            return expired == credentials;
+        }
+    }
+
+    /**
+     * The outcome of a token refresh.
+     * @param authentication the refreshed authentication, or {@code null} if the refresh failed.
+     * @param answer how the request that made the refresh was answered if it failed, or {@code null} if the refresh
+     *     was not made by a request.
+     */
+    private record TokenRefreshOutcome(@CheckForNull Authentication authentication, @CheckForNull Answer answer) {}
+
+    /**
+     * The answer sent to a request.
+     */
+    @FunctionalInterface
+    private interface Answer {
+
+        /**
+         * Not answering at all, leaving the request to proceed without an authentication.
+         */
+        Answer NONE = (request, response) -> {};
+
+        void send(HttpServletRequest request, HttpServletResponse response) throws IOException;
+    }
+
+    /**
+     * Records how the request making a token refresh was answered, so that the requests waiting for the same refresh
+     * are answered the same way if it fails.
+     */
+    private final class AnswerRecordingResponse extends HttpServletResponseWrapper {
+
+        private Answer answer = Answer.NONE;
+
+        AnswerRecordingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            answer = (request, response) -> response.sendError(sc);
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            answer = (request, response) -> response.sendError(sc, msg);
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            // the only redirect a failed refresh makes, which also ends the session of the request
+            answer = OicSecurityRealm.this::redirectToLoginUrl;
+            super.sendRedirect(location);
+        }
+    }
+
     private boolean refreshExpiredToken(
             String expectedUsername,
             OicCredentials credentials,
@@ -1287,36 +1990,13 @@ public class OicSecurityRealm extends SecurityRealm {
         FrameworkParameters parameters = new JEEFrameworkParameters(httpRequest, httpResponse);
         WebContext webContext = JEEContextFactory.INSTANCE.newContext(parameters);
         SessionStore sessionStore = JEESessionStoreFactory.INSTANCE.newSessionStore(parameters);
-        OidcClient client = buildOidcClient();
-        // PAC4J maintains the nonce even though servers should not respond with an id token containing the nonce
-        // https://openid.net/specs/openid-connect-core-1_0.html#RefreshTokenResponse
-        // it SHOULD NOT have a nonce Claim, even when the ID Token issued at the time of the original authentication
-        // contained nonce;
-        // however, if it is present, its value MUST be the same as in the ID Token issued at the time of the original
-        // authentication
-        // by default we will strip out the nonce unless the user has opted into it.
+        // the refresh client does not check the nonce unless the user has opted into it.
+        OidcClient client = getOidcClient(true);
         var configuration = client.getConfiguration();
-        configuration.setUseNonce(configuration.isUseNonce() && checkNonceInRefreshFlow);
         try {
-            OidcProfile profile = new OidcProfile();
-            profile.setAccessToken(new BearerAccessToken(credentials.getAccessToken()));
-            profile.setIdTokenString(credentials.getIdToken());
-            profile.setRefreshToken(new RefreshToken(credentials.getRefreshToken()));
-
-            CallContext ctx = new CallContext(webContext, sessionStore);
-            profile = (OidcProfile) client.renewUserProfile(ctx, profile)
-                    .orElseThrow(() -> new IllegalStateException("Could not renew user profile"));
-
-            // During refresh the IDToken may or may not be present.
-            // The refresh token may also not be present.
-            // in these cases we will reuse the original values.
-
-            AccessToken accessToken = profile.getAccessToken();
-            JWT idToken = Objects.requireNonNullElse(profile.getIdToken(), JWTParser.parse(credentials.getIdToken()));
-            RefreshToken refreshToken = Objects.requireNonNullElse(
-                    profile.getRefreshToken(), new RefreshToken(credentials.getRefreshToken()));
-
-            String username = determineStringField(userNameFieldExpr, idToken, profile.getAttributes());
+            RenewedProfile renewed =
+                    renewProfile(expectedUsername, client, new CallContext(webContext, sessionStore), credentials);
+            String username = renewed.claims().username();
             if (!User.idStrategy().equals(expectedUsername, username)) {
                 httpResponse.sendError(
                         HttpServletResponse.SC_UNAUTHORIZED, "User name was not the same after refresh request");
@@ -1338,19 +2018,18 @@ public class OicSecurityRealm extends SecurityRealm {
             }
             username = expectedUsername;
 
-            if (failedCheckOfTokenField(idToken)) {
+            if (failedCheckOfTokenField(renewed.claims())) {
                 throw new FailedCheckOfTokenException(configuration.findLogoutUrl());
             }
 
-            OicCredentials refreshedCredentials = new OicCredentials(
-                    accessToken.getValue(),
-                    idToken.getParsedString(),
-                    refreshToken.getValue(),
-                    accessToken.getLifetime(),
-                    CLOCK.millis(),
-                    (long) client.getConfiguration().getMaxClockSkew());
-
-            loginAndSetUserData(username, idToken, profile.getAttributes(), refreshedCredentials);
+            UsernamePasswordAuthenticationToken token =
+                    setRefreshedCredentials(username, renewed.claims(), renewed.credentials(), httpRequest);
+            if (token == null) {
+                loginAndSetUserData(username, renewed.claims(), renewed.credentials(), httpRequest);
+            } else {
+                // the user is as it was, there is no need to let the listeners know about it again
+                SecurityContextHolder.getContext().setAuthentication(token);
+            }
             return true;
         } catch (TechnicalException e) {
             if (StringUtils.contains(e.getMessage(), "error=invalid_grant")) {
@@ -1372,7 +2051,18 @@ public class OicSecurityRealm extends SecurityRealm {
             httpResponse.sendError(
                     HttpServletResponse.SC_UNAUTHORIZED, Messages.OicSecurityRealm_TokenRefreshFailure());
             return false;
-        } catch (ParseException e) {
+        } catch (CircuitBreaker.OpenException e) {
+            if (keepSessionDuringOutage(expectedUsername, credentials, e)) {
+                return true;
+            }
+            LOGGER.log(Level.FINE, "Failed to refresh expired token", e);
+            httpResponse.sendError(
+                    HttpServletResponse.SC_UNAUTHORIZED, Messages.OicSecurityRealm_TokenRefreshFailure());
+            return false;
+        } catch (IOException | ParseException e) {
+            if (keepSessionDuringOutage(expectedUsername, credentials, e)) {
+                return true;
+            }
             LOGGER.log(Level.WARNING, "Failed to refresh expired token", e);
             // could not renew
             httpResponse.sendError(
@@ -1386,6 +2076,250 @@ public class OicSecurityRealm extends SecurityRealm {
         }
     }
 
+    /**
+     * Let a user keep their session if their credentials could not be refreshed because the provider is unreachable
+     * and the grace period after their expiry has not elapsed.
+     * @return {@code true} if the request can proceed with the current authentication of the user.
+     */
+    private boolean keepSessionDuringOutage(String userId, OicCredentials credentials, Exception e) {
+        if (outageGracePeriods == null || !isProviderUnreachable(e)) {
+            return false;
+        }
+        if (!outageGracePeriods.start(userId, credentials, CLOCK.millis())) {
+            return false;
+        }
+        LOGGER.log(Level.FINE, "Failed to refresh expired token, keeping the session of " + userId, e);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the failure is caused by the provider not being reachable, as opposed to the provider
+     *     rejecting the request or the credentials failing to be saved, after which the refresh token of the user may
+     *     well have been used already.
+     */
+    private static boolean isProviderUnreachable(Throwable e) {
+        return e instanceof ProviderUnreachableException;
+    }
+
+    /**
+     * Renew the profile of a user with its refresh token.
+     * @throws ProviderUnreachableException if the token endpoint is too busy to be called, keeps failing or could not
+     *     be reached.
+     * @throws IllegalStateException if the profile could not be renewed.
+     */
+    private RenewedProfile renewProfile(String userId, OidcClient client, CallContext ctx, OicCredentials credentials)
+            throws IOException, ParseException {
+        OicMetrics.Sample sample = OicMetrics.Operation.REFRESH_TOKEN.start();
+        sample.user(userId);
+        try {
+            RenewedProfile renewed = renew(client, ctx, credentials);
+            sample.succeeded();
+            return renewed;
+        } catch (IOException | ParseException | RuntimeException e) {
+            sample.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+        }
+    }
+
+    /**
+     * Map the claims of a user, see {@link ClaimsMapper#map(JWT, Map)}.
+     */
+    private ClaimsMapper.MappedClaims mapClaims(JWT idToken, Map<String, Object> userInfo) throws ParseException {
+        try (OicMetrics.Sample sample = OicMetrics.Operation.CLAIMS_MAPPING.start()) {
+            ClaimsMapper.MappedClaims claims = claimsMapper().map(idToken, userInfo);
+            sample.user(claims.username());
+            sample.succeeded();
+            return claims;
+        }
+    }
+
+    /**
+     * The user info to map along with the ID token: the attributes of the profile built by pac4j, unless the realm
+     * retrieves it itself, which it only does when the ID token lacks some of the mapped claims.
+     * @param refresh {@code true} if the profile was renewed with a refresh token, for which user info retrieved
+     *     recently for the same user can be reused.
+     */
+    private Map<String, Object> userInfoOf(OidcClient client, OidcProfile profile, JWT idToken, boolean refresh)
+            throws IOException, ParseException {
+        UserInfoRetriever retriever = userInfoRetriever;
+        if (retriever == null) {
+            return profile.getAttributes();
+        }
+        URI endpoint = serverConfiguration.toProviderMetadata().getUserInfoEndpointURI();
+        String subject = idToken == null ? null : idToken.getJWTClaimsSet().getSubject();
+        if (endpoint == null || subject == null || profile.getAccessToken() == null) {
+            // there is nothing to call, or nothing to call it with
+            return profile.getAttributes();
+        }
+        if (claimsMapper().isSatisfiedBy(idToken)) {
+            OicMetrics.Cache.ID_TOKEN_CLAIMS.hit();
+            return profile.getAttributes();
+        }
+        OicMetrics.Cache.ID_TOKEN_CLAIMS.miss();
+        Map<String, Object> userInfo = retriever.retrieve(
+                subject,
+                refresh,
+                UserInfoRetriever.request(client.getConfiguration(), endpoint, profile.getAccessToken()));
+        return userInfo == null ? profile.getAttributes() : userInfo;
+    }
+
+    /**
+     * What a failed call to the token endpoint says about the provider, for the circuit breaker of the endpoint: only
+     * failures to reach the provider and answers telling that it is failing count as failures.
+     */
+    static CircuitBreaker.Outcome tokenEndpointOutcomeOf(TechnicalException e) {
+        if (isBulkheadFull(e)) {
+            // too many refreshes in progress on our side, the provider was not even called
+            return CircuitBreaker.Outcome.IGNORED;
+        }
+        for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+            if (t instanceof JOSEException) {
+                // the ID token was being validated, whatever the reason it failed, such as the signing keys not
+                // being retrieved, the token endpoint did answer
+                return CircuitBreaker.Outcome.IGNORED;
+            }
+            if (t instanceof IOException) {
+                // pac4j wraps the failures to send the token request
+                return CircuitBreaker.Outcome.FAILURE;
+            }
+        }
+        Matcher matcher = TOKEN_ERROR_PATTERN.matcher(StringUtils.defaultString(e.getMessage()));
+        if (!matcher.find()) {
+            // pac4j rejected an answer of the token endpoint, such as an ID token with the wrong nonce
+            return CircuitBreaker.Outcome.IGNORED;
+        }
+        // pac4j leaves out the status of the response, the error stands for it
+        return TOKEN_ENDPOINT_ERRORS.contains(matcher.group(1))
+                ? CircuitBreaker.Outcome.FAILURE
+                : CircuitBreaker.Outcome.SUCCESS;
+    }
+
+    /**
+     * @return {@code true} if the failure is due to too many calls to an endpoint being in progress on our side.
+     */
+    private static boolean isBulkheadFull(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IdpEndpoint.BulkheadFullException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private RenewedProfile renew(OidcClient client, CallContext ctx, OicCredentials credentials)
+            throws IOException, ParseException {
+        OidcProfile profile = new OidcProfile();
+        profile.setAccessToken(new BearerAccessToken(credentials.getAccessToken()));
+        profile.setIdTokenString(credentials.getIdToken());
+        profile.setRefreshToken(new RefreshToken(credentials.getRefreshToken()));
+
+        OidcProfile expired = profile;
+        CircuitBreaker breaker = tokenEndpointCircuitBreaker;
+        if (!breaker.tryAcquire()) {
+            throw new CircuitBreaker.OpenException("token");
+        }
+        CircuitBreaker.Outcome outcome = CircuitBreaker.Outcome.IGNORED;
+        Optional<UserProfile> renewed;
+        try {
+            renewed = IdpEndpoint.calls(() -> client.renewUserProfile(ctx, expired));
+            outcome = CircuitBreaker.Outcome.SUCCESS;
+        } catch (TechnicalException e) {
+            outcome = tokenEndpointOutcomeOf(e);
+            if (outcome == CircuitBreaker.Outcome.FAILURE) {
+                throw new ProviderUnreachableException(e);
+            }
+            throw e;
+        } finally {
+            breaker.record(outcome);
+        }
+        profile = (OidcProfile) renewed.orElseThrow(() -> new IllegalStateException("Could not renew user profile"));
+
+        // During refresh the IDToken may or may not be present.
+        // The refresh token may also not be present.
+        // in these cases we will reuse the original values.
+
+        AccessToken accessToken = profile.getAccessToken();
+        JWT idToken = Objects.requireNonNullElse(profile.getIdToken(), JWTParser.parse(credentials.getIdToken()));
+        RefreshToken refreshToken = Objects.requireNonNullElse(
+                profile.getRefreshToken(), new RefreshToken(credentials.getRefreshToken()));
+
+        ClaimsMapper.MappedClaims claims = mapClaims(idToken, userInfoOf(client, profile, idToken, true));
+        OicCredentials refreshedCredentials = new OicCredentials(
+                accessToken.getValue(),
+                idToken.getParsedString(),
+                refreshToken.getValue(),
+                accessToken.getLifetime(),
+                CLOCK.millis(),
+                (long) client.getConfiguration().getMaxClockSkew());
+        return new RenewedProfile(claims, refreshedCredentials);
+    }
+
+    /**
+     * The outcome of {@link #renewProfile(String, OidcClient, CallContext, OicCredentials)}.
+     * @param claims the mapped claims, whose user name may differ in case from the one we know.
+     */
+    private record RenewedProfile(ClaimsMapper.MappedClaims claims, OicCredentials credentials) {}
+
+    /**
+     * Refresh the credentials of a user ahead of their expiry, outside of any request.
+     * Nothing is done if the user has logged in again or been refreshed in the meantime, or if a request of that user
+     * is already refreshing them.
+     * Failures are only logged, leaving the credentials to be refreshed by the next request after they expire.
+     * @return {@code false} if the credentials could not be refreshed for a reason that may go away, such as the
+     *     provider being unreachable or another refresh being in progress.
+     */
+    boolean refreshAhead(String userId, OicCredentials credentials) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || jenkins.getSecurityRealm() != this) {
+            // the realm has been reconfigured since
+            return true;
+        }
+        User user = User.getById(userId, false);
+        // stores that only keep the credentials within requests have nothing to offer here
+        if (user == null || OicCredentialsStore.get().load(user, null) != credentials) {
+            return true;
+        }
+        String key = User.idStrategy().keyFor(userId);
+        TokenRefresh mine = new TokenRefresh(credentials, new CompletableFuture<>());
+        TokenRefresh refresh = tokenRefreshes.compute(
+                key, (k, current) -> current != null && current.isFor(credentials) ? current : mine);
+        if (refresh != mine) {
+            return false;
+        }
+        Authentication refreshed = null;
+        try {
+            OidcClient client = getOidcClient(true);
+            if (client.getConfiguration().isUseNonce()) {
+                // the nonce can only be checked against the session of the user, so leave it to the next request
+                return false;
+            }
+            RenewedProfile renewed = renewProfile(userId, client, DetachedCallContext.create(), credentials);
+            if (!User.idStrategy().equals(userId, renewed.claims().username())) {
+                LOGGER.log(Level.WARNING, "User name was not the same after refreshing the credentials of {0}", userId);
+                return true;
+            }
+            if (failedCheckOfTokenField(renewed.claims())) {
+                LOGGER.log(Level.FINE, "Token field check failed when refreshing the credentials of {0}", userId);
+                return true;
+            }
+            // keep exactly the same principal, see refreshExpiredToken
+            refreshed = setRefreshedCredentials(userId, renewed.claims(), renewed.credentials(), null);
+            if (refreshed == null) {
+                refreshed = setUserData(userId, renewed.claims(), renewed.credentials(), null);
+            }
+            refreshedAuthentications.put(key, refreshed);
+            LOGGER.log(Level.FINEST, "Refreshed the credentials of {0} ahead of their expiry", userId);
+            return true;
+        } catch (IOException | ParseException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to refresh the credentials of " + userId + " ahead of their expiry", e);
+            return !isProviderUnreachable(e) && !isBulkheadFull(e);
+        } finally {
+            completeTokenRefresh(key, mine, refreshed, null);
+        }
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<SecurityRealm> {
 
@@ -18,17 +18,63 @@ public abstract class OicServerConfiguration extends AbstractDescribableImpl<Oic
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The provider metadata currently served.
+     * It is replaced as a whole whenever the metadata changes and is never modified once published, so that it can be
+     * read without locking.
+     */
+    private transient volatile OIDCProviderMetadata providerMetadata;
+
     /**
      * Convert the OicServerConfiguration to {@link OIDCProviderMetadata} for use by the client.
+     * The same instance is returned for as long as the metadata does not change, and must not be modified.
      */
     public final OIDCProviderMetadata toProviderMetadata() {
-        var providerMetadata = toProviderMetadataInternal();
-        filterNonFIPS140CompliantAlgorithms(providerMetadata);
-        return providerMetadata;
+        OIDCProviderMetadata current = providerMetadata;
+        if (current == null || !isProviderMetadataCurrent(current)) {
+            // concurrent callers may each publish a copy, which are all alike
+            current = toProviderMetadataInternal();
+            providerMetadata = current;
+        }
+        return current;
     }
 
+    /**
+     * Build the provider metadata.
+     * Implementations must {@link #filterNonFIPS140CompliantAlgorithms(OIDCProviderMetadata) filter} the algorithms
+     * before returning it, and not modify it afterwards.
+     */
     protected abstract OIDCProviderMetadata toProviderMetadataInternal();
 
+    /**
+     * Tells whether the metadata returned by {@link #toProviderMetadataInternal()} is still the given one.
+     * The default is suitable for configurations whose metadata only changes when the configuration itself is replaced
+     * or {@link #providerMetadataChanged() changed}.
+     * @param providerMetadata metadata previously returned by {@link #toProviderMetadataInternal()}.
+     */
+    @Restricted(NoExternalUse.class)
+    protected boolean isProviderMetadataCurrent(@NonNull OIDCProviderMetadata providerMetadata) {
+        return true;
+    }
+
+    /**
+     * Discard the metadata served, as the configuration it was built from changed.
+     */
+    @Restricted(NoExternalUse.class)
+    protected final void providerMetadataChanged() {
+        providerMetadata = null;
+    }
+
+    /**
+     * Identifies the provider metadata currently returned by {@link #toProviderMetadata()}.
+     * Anything derived from the metadata (such as a built client) can be reused for as long as this returns the same
+     * instance.
+     */
+    @Restricted(NoExternalUse.class)
+    protected final Object getProviderMetadataVersion() {
+        return toProviderMetadata();
+    }
+
     // Visible for testing
     @Restricted(NoExternalUse.class)
     protected static void filterNonFIPS140CompliantAlgorithms(@NonNull OIDCProviderMetadata oidcProviderMetadata) {
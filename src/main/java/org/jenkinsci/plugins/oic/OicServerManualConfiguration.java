@@ -59,31 +59,37 @@ public class OicServerManualConfiguration extends OicServerConfiguration {
     @DataBoundSetter
     public void setTokenAuthMethod(TokenAuthMethod tokenAuthMethod) throws FormException {
         this.tokenAuthMethod = validateNonNull("tokenAuthMethod", tokenAuthMethod);
+        providerMetadataChanged();
     }
 
     @DataBoundSetter
     public void setEndSessionUrl(@Nullable String endSessionUrl) {
         this.endSessionUrl = Util.fixEmptyAndTrim(endSessionUrl);
+        providerMetadataChanged();
     }
 
     @DataBoundSetter
     public void setJwksServerUrl(@Nullable String jwksServerUrl) {
         this.jwksServerUrl = Util.fixEmptyAndTrim(jwksServerUrl);
+        providerMetadataChanged();
     }
 
     @DataBoundSetter
     public void setScopes(@NonNull String scopes) {
         this.scopes = Objects.requireNonNull(scopes);
+        providerMetadataChanged();
     }
 
     @DataBoundSetter
     public void setUserInfoServerUrl(@Nullable String userInfoServerUrl) {
         this.userInfoServerUrl = Util.fixEmptyAndTrim(userInfoServerUrl);
+        providerMetadataChanged();
     }
 
     @DataBoundSetter
     public void setUseRefreshTokens(boolean useRefreshTokens) {
         this.useRefreshTokens = useRefreshTokens;
+        providerMetadataChanged();
     }
 
     public String getAuthorizationServerUrl() {
@@ -163,6 +169,7 @@ public class OicServerManualConfiguration extends OicServerConfiguration {
                 allAlgorithms.addAll(JWSAlgorithm.Family.SIGNATURE);
             }
             providerMetadata.setIDTokenJWSAlgs(allAlgorithms);
+            filterNonFIPS140CompliantAlgorithms(providerMetadata);
             return providerMetadata;
         } catch (URISyntaxException e) {
             throw new IllegalStateException("could not create provider metadata", e);
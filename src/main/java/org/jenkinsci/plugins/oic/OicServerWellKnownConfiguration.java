@@ -2,33 +2,35 @@ package org.jenkinsci.plugins.oic;
 
 import com.nimbusds.jose.Algorithm;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.util.ResourceRetriever;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.Scope;
 import com.nimbusds.oauth2.sdk.auth.ClientAuthenticationMethod;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.RelativePath;
 import hudson.Util;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.http.HttpHeaders;
-import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.net.ssl.SSLException;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
@@ -46,13 +48,38 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
     private final String wellKnownOpenIDConfigurationUrl;
     private String scopesOverride;
 
+    /**
+     * Default time for which a downloaded configuration is considered fresh.
+     */
+    private static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+    /**
+     * Time after which a failed download is attempted again.
+     */
+    private static final Duration RETRY_INTERVAL = Duration.ofSeconds(30);
+
     /**
      * Time of the wellknown configuration expiration
      */
-    private transient LocalDateTime wellKnownExpires = null;
+    private transient volatile Instant wellKnownExpires = null;
+
+    /**
+     * Time from which the wellknown configuration is downloaded again in the background, ahead of its expiration.
+     */
+    private transient volatile Instant wellKnownRefreshAt = null;
 
     private transient volatile OIDCProviderMetadata oidcProviderMetadata;
 
+    /**
+     * The download currently in progress if any, so that concurrent callers share a single download.
+     */
+    private transient CompletableFuture<OIDCProviderMetadata> inflightRefresh;
+
+    /**
+     * The next background refresh, so that at most one is ever scheduled.
+     */
+    private transient ScheduledFuture<?> scheduledRefresh;
+
     @DataBoundConstructor
     public OicServerWellKnownConfiguration(String wellKnownOpenIDConfigurationUrl) {
         this.wellKnownOpenIDConfigurationUrl = Objects.requireNonNull(wellKnownOpenIDConfigurationUrl);
@@ -74,74 +101,148 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
     @Restricted(DoNotUse.class) // for testing only
     void invalidateProviderMetadata() {
         oidcProviderMetadata = null;
+        wellKnownExpires = null;
+        wellKnownRefreshAt = null;
+    }
+
+    /**
+     * The metadata changes whenever it is downloaded again from the well known URL.
+     */
+    @Override
+    protected boolean isProviderMetadataCurrent(@NonNull OIDCProviderMetadata providerMetadata) {
+        return toProviderMetadataInternal() == providerMetadata;
     }
 
     /**
-     * Obtain the provider configuration from the configured well known URL if it
-     * has not yet been obtained or requires a refresh.
+     * Obtain the provider configuration from the configured well known URL.
+     * Once obtained the last good copy is always served from memory, and refreshed in the background before it expires.
+     * Only the very first call has to wait for the download, unless a copy was saved to disk by a previous run.
      */
     @Override
     protected OIDCProviderMetadata toProviderMetadataInternal() {
         // we perform this download manually rather than letting pac4j perform it
         // so that we can cache and expire the result.
         // pac4j will cache the result yet never expire it.
-        LocalDateTime now = LocalDateTime.now();
-        if (this.wellKnownExpires != null && this.wellKnownExpires.isBefore(now)) {
-            // configuration is still fresh
-            return oidcProviderMetadata;
+        OIDCProviderMetadata current = oidcProviderMetadata;
+        if (current != null) {
+            OicMetrics.Cache.PROVIDER_METADATA.hit();
+            Instant refreshAt = wellKnownRefreshAt;
+            Instant now = Instant.now();
+            if (refreshAt == null || !now.isBefore(refreshAt)) {
+                refreshProviderMetadata(true);
+            }
+            Instant expires = wellKnownExpires;
+            if (expires != null && !now.isBefore(expires)) {
+                LOGGER.log(Level.FINE, "Serving expired wellknown OpenID Configuration until it can be refreshed");
+            }
+            // serve the copy we have, even when expired, rather than waiting for the IdP
+            return current;
         }
+        // after a restart serve the last known good copy saved to disk, and check it is still current in the background
+        OIDCProviderMetadata snapshot = loadSnapshot();
+        if (snapshot != null) {
+            OicMetrics.Cache.PROVIDER_METADATA.hit();
+            refreshProviderMetadata(true);
+            return snapshot;
+        }
+        // nothing has been downloaded yet, so there is nothing to serve until it has been
+        OicMetrics.Cache.PROVIDER_METADATA.miss();
+        OIDCProviderMetadata loaded = refreshProviderMetadata(false).join();
+        if (loaded != null) {
+            return loaded;
+        }
+        throw new IllegalStateException("Well known configuration could not be loaded, login can not proceed.");
+    }
 
-        // Download OIDC metadata
-        // we need to configure timeouts, headers as well as SSL (hostname verifier etc..)
-        // which may be disabled in the configuration
-        ResourceRetriever rr = ((OicSecurityRealm) (Jenkins.get().getSecurityRealm())).getResourceRetriever();
+    /**
+     * Make the last known good copy saved by the {@link ResourceSnapshotStore} the one served, if there is one.
+     * @return the saved configuration or {@code null} if none could be obtained.
+     */
+    @CheckForNull
+    private synchronized OIDCProviderMetadata loadSnapshot() {
+        OIDCProviderMetadata current = oidcProviderMetadata;
+        if (current != null) {
+            return current;
+        }
         try {
-            OIDCProviderMetadata _oidcProviderMetadata =
-                    OIDCProviderMetadata.parse(rr.retrieveResource(new URL(wellKnownOpenIDConfigurationUrl))
-                            .getContent());
-            String _scopesOverride = getScopesOverride();
-            if (_scopesOverride != null) {
-                // split the scopes by space
-                String[] splitScopes = _scopesOverride.split("\\s+");
-                _oidcProviderMetadata.setScopes(new Scope(splitScopes));
+            ProxyAwareResourceRetriever rr =
+                    ((OicSecurityRealm) (Jenkins.get().getSecurityRealm())).getResourceRetriever();
+            CacheableResource snapshot = rr.retrieveSnapshot(new URL(wellKnownOpenIDConfigurationUrl));
+            if (snapshot == null) {
+                return null;
+            }
+            OIDCProviderMetadata _oidcProviderMetadata = parseProviderMetadata(snapshot);
+            wellKnownExpires = snapshot.expires();
+            oidcProviderMetadata = _oidcProviderMetadata;
+            return _oidcProviderMetadata;
+        } catch (MalformedURLException | ParseException e) {
+            LOGGER.log(Level.WARNING, "Ignoring the saved wellknown OpenID Configuration", e);
+            return null;
+        }
+    }
+
+    /**
+     * Download the provider configuration, with at most one download in progress at any given time.
+     * @param async {@code true} to download on a background thread, {@code false} to download on the calling thread
+     *     unless another thread is already downloading it.
+     * @return the download in progress, completing with the downloaded configuration or {@code null} if it could not
+     *     be downloaded.
+     */
+    private CompletableFuture<OIDCProviderMetadata> refreshProviderMetadata(boolean async) {
+        CompletableFuture<OIDCProviderMetadata> refresh;
+        synchronized (this) {
+            if (inflightRefresh != null) {
+                return inflightRefresh;
             }
-            // we do not expose enough to be able to configure all authentication methods,
-            // so limit supported auth methods to CLIENT_SECRET_BASIC / CLIENT_SECRET_POST
-            List<ClientAuthenticationMethod> tokenEndpointAuthMethods =
-                    _oidcProviderMetadata.getTokenEndpointAuthMethods();
-            if (tokenEndpointAuthMethods != null) {
-                List<ClientAuthenticationMethod> filteredEndpointAuthMethods =
-                        new ArrayList<>(tokenEndpointAuthMethods);
-                filteredEndpointAuthMethods.removeIf(cam -> cam != ClientAuthenticationMethod.CLIENT_SECRET_BASIC
-                        && cam != ClientAuthenticationMethod.CLIENT_SECRET_POST);
-                if (filteredEndpointAuthMethods.isEmpty()) {
-                    LOGGER.log(
-                            Level.WARNING,
-                            "OIDC well-known configuration reports only unsupported token authentication methods (authentication may not work): "
-                                    + tokenEndpointAuthMethods.stream()
-                                            .map(Object::toString)
-                                            .collect(Collectors.joining(",", "[", "]")));
-                    _oidcProviderMetadata.setTokenEndpointAuthMethods(null);
-                } else {
-                    _oidcProviderMetadata.setTokenEndpointAuthMethods(filteredEndpointAuthMethods);
+            refresh = new CompletableFuture<>();
+            inflightRefresh = refresh;
+        }
+        Runnable download = () -> {
+            try {
+                refresh.complete(loadProviderMetadata());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error while loading wellknown OpenID Configuration", e);
+                refresh.complete(null);
+            } finally {
+                synchronized (this) {
+                    inflightRefresh = null;
                 }
             }
-            // do not allow the "none" singing algorithm for security
-            List<JWSAlgorithm> idTokenJWSAlgs = _oidcProviderMetadata.getIDTokenJWSAlgs();
-            if (idTokenJWSAlgs != null && idTokenJWSAlgs.contains(Algorithm.NONE)) {
-                ArrayList<JWSAlgorithm> _idTokenJWSAlgs = new ArrayList<>(idTokenJWSAlgs);
-                _idTokenJWSAlgs.remove(Algorithm.NONE);
-                _oidcProviderMetadata.setIDTokenJWSAlgs(_idTokenJWSAlgs);
+        };
+        if (async) {
+            // the download blocks on the network, which the small pool of Timer is not meant for
+            Computer.threadPoolForRemoting.submit(download);
+        } else {
+            download.run();
+        }
+        return refresh;
+    }
+
+    /**
+     * Download and parse the provider configuration, making it the one served if successful.
+     * @return the downloaded configuration or {@code null} if it could not be obtained.
+     */
+    @CheckForNull
+    private OIDCProviderMetadata loadProviderMetadata() {
+        // Download OIDC metadata
+        // we need to configure timeouts, headers as well as SSL (hostname verifier etc..)
+        // which may be disabled in the configuration
+        ProxyAwareResourceRetriever rr =
+                ((OicSecurityRealm) (Jenkins.get().getSecurityRealm())).getResourceRetriever();
+        try {
+            CacheableResource resource =
+                    rr.retrieveCacheableResource(new URL(wellKnownOpenIDConfigurationUrl), IdpEndpoint.DISCOVERY);
+            OIDCProviderMetadata current = oidcProviderMetadata;
+            if (!resource.modified() && current != null) {
+                // the IdP confirmed our copy is still current, so there is nothing to parse
+                setWellKnownExpires(resource.expires());
+                return current;
             }
+            OIDCProviderMetadata _oidcProviderMetadata = parseProviderMetadata(resource);
+            // the OicSecurityRealm rebuilds its cached client whenever a new copy is downloaded.
+            setWellKnownExpires(resource.expires());
             oidcProviderMetadata = _oidcProviderMetadata;
-            // we have no access to the HTTP Headers to be able to find a expirey headers.
-            // for now use the default expirey of 1hr.
-            // we are already calling HTTP endpoints as part of the flow, so making one extra call an hour
-            // should not cause any issues.
-            // once this is validate, the OicSecurityRealm can be simplified to cache the built client
-            // and have a periodic task to invalidate it when auto config is being used.
-            setWellKnownExpires(null);
-            return oidcProviderMetadata;
+            return _oidcProviderMetadata;
         } catch (MalformedURLException e) {
             LOGGER.log(Level.SEVERE, "Invalid WellKnown OpenID Configuration URL", e);
         } catch (ParseException e) {
@@ -149,34 +250,105 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error while loading wellknown OpenID Configuration", e);
         }
-        if (oidcProviderMetadata != null) {
-            // return the previously downloaded but expired copy with the hope it still works.
-            // although if the well known url is down it is unlikely the rest of the provider is healthy, still. we can
-            // hope.
-            return oidcProviderMetadata;
-        }
-        throw new IllegalStateException("Well known configuration could not be loaded, login can not proceed.");
+        // keep serving the previously downloaded copy (if any) with the hope it still works.
+        // although if the well known url is down it is unlikely the rest of the provider is healthy, still. we can
+        // hope.
+        wellKnownRefreshAt = Instant.now().plus(RETRY_INTERVAL);
+        scheduleRefresh(RETRY_INTERVAL);
+        return null;
     }
 
     /**
-     * Parse headers to determine expiration date.
-     * Sets the expiry time to 1 hour from the current time if the header is not available.
+     * Parse the downloaded provider configuration, restricting it to what we support.
      */
-    private void setWellKnownExpires(@CheckForNull HttpHeaders headers) {
-        Optional<String> expires = headers == null ? Optional.empty() : headers.firstValue("Expires");
-        // expires 0 means no cache
-        // we could (should?) have a look at Cache-Control header and max-age but for
-        // simplicity we can just leave it default TTL 1h refresh which sounds reasonable for such file
-        if (expires.isPresent() && !"0".equals(expires.get())) {
-            ZonedDateTime zdt = ZonedDateTime.parse(expires.get(), DateTimeFormatter.RFC_1123_DATE_TIME);
-            if (zdt != null) {
-                this.wellKnownExpires = zdt.toLocalDateTime();
-                return;
+    private OIDCProviderMetadata parseProviderMetadata(CacheableResource resource) throws ParseException {
+        OIDCProviderMetadata _oidcProviderMetadata = OIDCProviderMetadata.parse(resource.resource().getContent());
+        String _scopesOverride = getScopesOverride();
+        if (_scopesOverride != null) {
+            // split the scopes by space
+            String[] splitScopes = _scopesOverride.split("\\s+");
+            _oidcProviderMetadata.setScopes(new Scope(splitScopes));
+        }
+        // we do not expose enough to be able to configure all authentication methods,
+        // so limit supported auth methods to CLIENT_SECRET_BASIC / CLIENT_SECRET_POST
+        List<ClientAuthenticationMethod> tokenEndpointAuthMethods = _oidcProviderMetadata.getTokenEndpointAuthMethods();
+        if (tokenEndpointAuthMethods != null) {
+            List<ClientAuthenticationMethod> filteredEndpointAuthMethods = new ArrayList<>(tokenEndpointAuthMethods);
+            filteredEndpointAuthMethods.removeIf(cam -> cam != ClientAuthenticationMethod.CLIENT_SECRET_BASIC
+                    && cam != ClientAuthenticationMethod.CLIENT_SECRET_POST);
+            if (filteredEndpointAuthMethods.isEmpty()) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "OIDC well-known configuration reports only unsupported token authentication methods (authentication may not work): "
+                                + tokenEndpointAuthMethods.stream()
+                                        .map(Object::toString)
+                                        .collect(Collectors.joining(",", "[", "]")));
+                _oidcProviderMetadata.setTokenEndpointAuthMethods(null);
+            } else {
+                _oidcProviderMetadata.setTokenEndpointAuthMethods(filteredEndpointAuthMethods);
             }
         }
+        // do not allow the "none" singing algorithm for security
+        List<JWSAlgorithm> idTokenJWSAlgs = _oidcProviderMetadata.getIDTokenJWSAlgs();
+        if (idTokenJWSAlgs != null && idTokenJWSAlgs.contains(Algorithm.NONE)) {
+            ArrayList<JWSAlgorithm> _idTokenJWSAlgs = new ArrayList<>(idTokenJWSAlgs);
+            _idTokenJWSAlgs.remove(Algorithm.NONE);
+            _oidcProviderMetadata.setIDTokenJWSAlgs(_idTokenJWSAlgs);
+        }
+        // filtered before it is published, as it is not to be modified afterwards
+        filterNonFIPS140CompliantAlgorithms(_oidcProviderMetadata);
+        return _oidcProviderMetadata;
+    }
 
-        // default to 1 hour refresh
-        this.wellKnownExpires = LocalDateTime.now().plusSeconds(3600);
+    /**
+     * Record when the downloaded configuration expires, as advertised by the IdP through its caching headers.
+     * Sets the expiry time to 1 hour from the current time if the IdP did not say.
+     * The configuration is refreshed in the background once three quarters of that time have passed.
+     */
+    private void setWellKnownExpires(@CheckForNull Instant advertisedExpires) {
+        Instant now = Instant.now();
+        Instant expires = advertisedExpires == null ? now.plus(DEFAULT_TTL) : advertisedExpires;
+        Duration ttl = Duration.between(now, expires);
+        if (ttl.isNegative()) {
+            ttl = Duration.ZERO;
+        }
+        Duration refreshIn = ttl.multipliedBy(3).dividedBy(4);
+        if (refreshIn.compareTo(RETRY_INTERVAL) < 0) {
+            // do not hammer the IdP when it does not allow caching
+            refreshIn = RETRY_INTERVAL;
+        }
+        this.wellKnownExpires = expires;
+        this.wellKnownRefreshAt = now.plus(refreshIn);
+        scheduleRefresh(refreshIn);
+    }
+
+    /**
+     * Schedule the next background refresh, replacing any previously scheduled one.
+     * The refresh only takes place if this configuration is still the one in use by then.
+     */
+    private synchronized void scheduleRefresh(Duration delay) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = Timer.get()
+                .schedule(
+                        () -> {
+                            if (isInUse()) {
+                                refreshProviderMetadata(true);
+                            }
+                        },
+                        delay.toMillis(),
+                        TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return {@code true} if this configuration belongs to the current security realm.
+     */
+    private boolean isInUse() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null
+                && jenkins.getSecurityRealm() instanceof OicSecurityRealm realm
+                && realm.getServerConfiguration() == this;
     }
 
     @Extension
@@ -200,9 +372,9 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
                 ProxyAwareResourceRetriever prr =
                         ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(disableSslVerification);
 
-                OIDCProviderMetadata providerMetadata =
-                        OIDCProviderMetadata.parse(prr.retrieveResource(new URL(wellKnownOpenIDConfigurationUrl))
-                                .getContent());
+                OIDCProviderMetadata providerMetadata = OIDCProviderMetadata.parse(prr.retrieveResource(
+                                new URL(wellKnownOpenIDConfigurationUrl), IdpEndpoint.DISCOVERY)
+                        .getContent());
 
                 if (providerMetadata.getAuthorizationEndpointURI() == null
                         || providerMetadata.getTokenEndpointURI() == null) {
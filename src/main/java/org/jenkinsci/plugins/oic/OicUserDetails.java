@@ -1,8 +1,7 @@
 package org.jenkinsci.plugins.oic;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.Set;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -10,11 +9,11 @@ public class OicUserDetails implements UserDetails {
     private static final long serialVersionUID = 1L;
 
     private final String userName;
-    private final List<GrantedAuthority> grantedAuthorities;
+    private final Set<GrantedAuthority> grantedAuthorities;
 
     public OicUserDetails(String userName, Collection<? extends GrantedAuthority> grantedAuthorities) {
         this.userName = userName;
-        this.grantedAuthorities = new ArrayList<>(grantedAuthorities);
+        this.grantedAuthorities = AuthoritySets.of(grantedAuthorities);
     }
 
     @Override
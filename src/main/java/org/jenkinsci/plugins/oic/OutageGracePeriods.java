@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.User;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Lets users keep using Jenkins with the authorities they were last granted while their expired credentials cannot
+ * be refreshed because the OpenID provider is unreachable, for a bounded time after the credentials expired.
+ * During that grace period the requests of these users no longer call the provider, their credentials are refreshed
+ * in the background instead, retrying with an exponential backoff.
+ */
+class OutageGracePeriods {
+
+    private static final Logger LOGGER = Logger.getLogger(OutageGracePeriods.class.getName());
+
+    /**
+     * Time after the expiry of their credentials during which users keep their session while the provider is
+     * unreachable, {@code 0} (the default) disables the grace period.
+     */
+    private static final long OUTAGE_GRACE_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".outageGraceMillis", 0L);
+
+    /**
+     * Time before the first background retry, doubled after each failed retry.
+     */
+    private static final long OUTAGE_RETRY_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".outageRetryMillis", 10_000L);
+
+    private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final OicSecurityRealm realm;
+
+    private final long graceMillis;
+
+    private final long initialRetryMillis;
+
+    private final Executor executor;
+
+    /**
+     * The grace period of each user, keyed by {@link jenkins.model.IdStrategy#keyFor(String)}.
+     */
+    private final Map<String, GracePeriod> gracePeriods = new ConcurrentHashMap<>();
+
+    OutageGracePeriods(@NonNull OicSecurityRealm realm, long graceMillis, long initialRetryMillis) {
+        this.realm = realm;
+        this.graceMillis = graceMillis;
+        this.initialRetryMillis = Math.max(1, initialRetryMillis);
+        // retries are spread over time and fail fast while the provider is down, one at a time keeps up with them
+        this.executor = new BoundedExecutor(1);
+    }
+
+    /**
+     * @return the grace periods of the given realm, or {@code null} if they are disabled.
+     */
+    @CheckForNull
+    static OutageGracePeriods create(@NonNull OicSecurityRealm realm) {
+        if (OUTAGE_GRACE_MILLIS <= 0) {
+            return null;
+        }
+        return new OutageGracePeriods(realm, OUTAGE_GRACE_MILLIS, OUTAGE_RETRY_MILLIS);
+    }
+
+    /**
+     * @return {@code true} if the given expired credentials of the user are in a grace period.
+     */
+    boolean isInGracePeriod(@NonNull String userId, @NonNull OicCredentials credentials, long nowMillis) {
+        GracePeriod gracePeriod = gracePeriods.get(User.idStrategy().keyFor(userId));
+        return gracePeriod != null && gracePeriod.credentials == credentials && nowMillis < gracePeriod.endMillis;
+    }
+
+    /**
+     * Start a grace period for expired credentials that could not be refreshed as the provider is unreachable.
+     * @return {@code true} if the user may keep their session, {@code false} if their credentials expired too long
+     *     ago.
+     */
+    boolean start(@NonNull String userId, @NonNull OicCredentials credentials, long nowMillis) {
+        Long expiresAtMillis = credentials.getExpiresAtMillis();
+        if (expiresAtMillis == null || nowMillis >= expiresAtMillis + graceMillis) {
+            return false;
+        }
+        String key = User.idStrategy().keyFor(userId);
+        GracePeriod mine = new GracePeriod(userId, credentials, expiresAtMillis + graceMillis);
+        GracePeriod gracePeriod = gracePeriods.compute(
+                key, (k, current) -> current != null && current.credentials == credentials ? current : mine);
+        if (gracePeriod == mine) {
+            LOGGER.log(
+                    Level.FINE,
+                    "The OpenID provider is unreachable, keeping the session of {0} until it is available again",
+                    userId);
+            scheduleRetry(key, mine, initialRetryMillis, nowMillis);
+        }
+        return true;
+    }
+
+    private void scheduleRetry(String key, GracePeriod gracePeriod, long delayMillis, long nowMillis) {
+        if (nowMillis >= gracePeriod.endMillis) {
+            // the next request of the user will have to refresh the credentials itself
+            gracePeriods.remove(key, gracePeriod);
+            return;
+        }
+        long delay = Math.min(delayMillis, gracePeriod.endMillis - nowMillis);
+        Timer.get()
+                .schedule(
+                        () -> executor.execute(() -> retry(key, gracePeriod, delayMillis)),
+                        delay,
+                        TimeUnit.MILLISECONDS);
+    }
+
+    private void retry(String key, GracePeriod gracePeriod, long delayMillis) {
+        if (gracePeriods.get(key) != gracePeriod) {
+            return;
+        }
+        if (realm.refreshAhead(gracePeriod.userId, gracePeriod.credentials)) {
+            gracePeriods.remove(key, gracePeriod);
+            return;
+        }
+        scheduleRetry(key, gracePeriod, Math.min(delayMillis * 2, MAX_RETRY_MILLIS), System.currentTimeMillis());
+    }
+
+    /**
+     * @param endMillis the time at which the user loses their session if the credentials still cannot be refreshed.
+     */
+    private record GracePeriod(String userId, OicCredentials credentials, long endMillis) {}
+}
@@ -0,0 +1,21 @@
+package org.jenkinsci.plugins.oic;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the OpenID provider could not be called, or did not answer, as opposed to the provider rejecting the
+ * request or the realm failing to process the answer.
+ * Only such failures leave the credentials of the user as they were, so that the call can be retried later.
+ */
+class ProviderUnreachableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    ProviderUnreachableException(String message) {
+        super(message);
+    }
+
+    ProviderUnreachableException(Throwable cause) {
+        super(cause.getMessage(), cause);
+    }
+}
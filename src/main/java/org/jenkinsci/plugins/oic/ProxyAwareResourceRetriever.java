@@ -1,16 +1,39 @@
 package org.jenkinsci.plugins.oic;
 
+import com.nimbusds.jose.util.BoundedInputStream;
 import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jose.util.IOUtils;
+import com.nimbusds.jose.util.Resource;
 import com.nimbusds.jose.util.ResourceRetriever;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.ProxyConfiguration;
+import hudson.model.Computer;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 import jenkins.security.FIPS140;
 import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.oic.ssl.IgnoringHostNameVerifier;
@@ -19,9 +42,16 @@ import org.pac4j.core.context.HttpConstants;
 
 /**
  * A {@link ResourceRetriever} that is configured with sane connection/timeout defaults and the Jenkins proxy.
+ * Unless TLS validation is disabled, resources are retrieved with the shared {@link IdpHttpClient}.
+ * Retrieved resources are revalidated with conditional requests ({@code ETag} / {@code Last-Modified}) and report the
+ * expiry advertised by the server.
+ * When a {@link ResourceSnapshotStore} is set, the last known good copy of each resource is persisted and served on
+ * first use while it is revalidated in the background.
  */
 class ProxyAwareResourceRetriever extends DefaultResourceRetriever {
 
+    private static final Logger LOGGER = Logger.getLogger(ProxyAwareResourceRetriever.class.getName());
+
     @SuppressWarnings("boxing")
     private static final int CONNECTION_TIMEOUT_MS = SystemProperties.getInteger("OIC_CONNECTION_TIMEOUT_MS", 2_000);
 
@@ -31,22 +61,318 @@ class ProxyAwareResourceRetriever extends DefaultResourceRetriever {
     @SuppressWarnings("boxing")
     private static final int SIZE_LIMIT = SystemProperties.getInteger("OIC_CONNECTION_SIZE_LIMIT", 0);
 
+    /**
+     * Maximum number of resources remembered for revalidation.
+     * We only ever retrieve a handful of documents (discovery and JWKS) so this is only a safety net.
+     */
+    private static final int MAX_CACHED_RESOURCES = 16;
+
     private final boolean disableTLSValidation;
 
+    @CheckForNull
+    private final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * The last retrieved copy of each resource that can be revalidated, keyed by URL.
+     */
+    private final Map<String, CacheableResource> cachedResources = new ConcurrentHashMap<>();
+
+    @CheckForNull
+    private volatile ResourceSnapshotStore snapshotStore;
+
+    /**
+     * The URLs for which the persisted snapshot has already been served, after which the network is always used.
+     */
+    private final Set<String> servedSnapshots = ConcurrentHashMap.newKeySet();
+
     private ProxyAwareResourceRetriever(boolean disableTLSValidation)
             throws KeyManagementException, NoSuchAlgorithmException {
-        super(
-                CONNECTION_TIMEOUT_MS,
-                READ_TIMEOUT_MS,
-                SIZE_LIMIT,
-                true,
-                disableTLSValidation ? TLSUtils.createAnythingGoesSSLSocketFactory() : null);
+        this(disableTLSValidation, disableTLSValidation ? TLSUtils.createAnythingGoesSSLSocketFactory() : null);
+    }
+
+    private ProxyAwareResourceRetriever(boolean disableTLSValidation, @CheckForNull SSLSocketFactory sslSocketFactory) {
+        super(CONNECTION_TIMEOUT_MS, READ_TIMEOUT_MS, SIZE_LIMIT, true, sslSocketFactory);
         this.disableTLSValidation = disableTLSValidation;
+        this.sslSocketFactory = sslSocketFactory;
         // set the same default headers as the in the default client should a resolver not be specified
         // https://github.com/pac4j/pac4j/blob/pac4j-parent-5.7.7/pac4j-oidc/src/main/java/org/pac4j/oidc/config/OidcConfiguration.java#L179-L193
         setHeaders(Map.of(HttpConstants.ACCEPT_HEADER, List.of(HttpConstants.APPLICATION_JSON)));
     }
 
+    /**
+     * Persist the retrieved resources in the given store and serve them from it on first use.
+     */
+    void setSnapshotStore(@CheckForNull ResourceSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * Retrieve the signing keys of the provider, see {@link #retrieveResource(URL, IdpEndpoint)}.
+     */
+    @Override
+    public Resource retrieveResource(URL url) throws IOException {
+        return retrieveResource(url, IdpEndpoint.JWKS);
+    }
+
+    /**
+     * Retrieve the resource, revalidating any previously retrieved copy with a conditional request so that an
+     * unchanged resource is answered by a cheap {@code 304 Not Modified}.
+     * The first retrieval of a resource that has a persisted snapshot returns the snapshot without waiting for the
+     * network, and revalidates it in the background.
+     * @param endpoint the endpoint the resource is retrieved from, which determines the timeouts used.
+     */
+    public Resource retrieveResource(URL url, IdpEndpoint endpoint) throws IOException {
+        String key = url.toExternalForm();
+        if (snapshotStore != null && !cachedResources.containsKey(key) && servedSnapshots.add(key)) {
+            CacheableResource snapshot = retrieveSnapshot(url);
+            if (snapshot != null) {
+                // the revalidation blocks on the network, which the small pool of Timer is not meant for
+                Computer.threadPoolForRemoting.submit(() -> {
+                    try {
+                        retrieveCacheableResource(url, endpoint);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Failed to revalidate the snapshot of " + url, e);
+                    }
+                });
+                return snapshot.resource();
+            }
+        }
+        return retrieveCacheableResource(url, endpoint).resource();
+    }
+
+    /**
+     * Get the last known good copy of the resource persisted in the snapshot store, without any network access.
+     * A snapshot that can be revalidated is remembered so that the next retrieval is a conditional request.
+     *
+     * @return the snapshot, or {@code null} if there is no snapshot store or no snapshot for this URL.
+     */
+    @CheckForNull
+    CacheableResource retrieveSnapshot(@NonNull URL url) {
+        ResourceSnapshotStore store = snapshotStore;
+        if (store == null) {
+            return null;
+        }
+        String key = url.toExternalForm();
+        CacheableResource snapshot = store.get(key);
+        if (snapshot != null && snapshot.isRevalidatable()) {
+            cachedResources.putIfAbsent(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Retrieve the resource along with its caching information.
+     * If a previously retrieved copy is still current, it is returned as is and marked as not
+     * {@link CacheableResource#modified() modified}.
+     * @param endpoint the endpoint the resource is retrieved from, which determines the timeouts used.
+     */
+    @NonNull
+    CacheableResource retrieveCacheableResource(@NonNull URL url, @NonNull IdpEndpoint endpoint) throws IOException {
+        return endpoint.call(() -> doRetrieveCacheableResource(url, endpoint));
+    }
+
+    private CacheableResource doRetrieveCacheableResource(URL url, IdpEndpoint endpoint) throws IOException {
+        String key = url.toExternalForm();
+        CacheableResource previous = cachedResources.get(key);
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        if (getHeaders() != null) {
+            headers.putAll(getHeaders());
+        }
+        if (previous != null) {
+            if (previous.eTag() != null) {
+                headers.put("If-None-Match", List.of(previous.eTag()));
+            }
+            if (previous.lastModified() != null) {
+                headers.put("If-Modified-Since", List.of(previous.lastModified()));
+            }
+        }
+        // the shared client cannot skip the hostname verification, so keep using a dedicated connection then
+        int connectTimeout = endpoint.connectTimeoutMillis(getConnectTimeout());
+        int readTimeout = endpoint.readTimeoutMillis(getReadTimeout());
+        ResourceResponse response = disableTLSValidation
+                ? sendWithConnection(url, headers, connectTimeout, readTimeout)
+                : send(url, headers, connectTimeout, readTimeout);
+        boolean success = false;
+        try {
+            int statusCode = response.statusCode();
+            Instant expires = CacheableResource.parseExpires(
+                    response.header("Cache-Control"),
+                    response.header("Expires"),
+                    response.header("Age"),
+                    Instant.now());
+            String eTag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+
+            CacheableResource result;
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                result = previous.notModified(eTag, lastModified, expires);
+            } else if (statusCode < 200 || statusCode > 299) {
+                String statusMessage = response.statusMessage();
+                throw new IOException("HTTP " + statusCode + (statusMessage == null ? "" : ": " + statusMessage));
+            } else {
+                String content;
+                try (InputStream inputStream = getSizeLimit() > 0
+                        ? new BoundedInputStream(response.body(), getSizeLimit())
+                        : response.body()) {
+                    content = IOUtils.readInputStreamToString(inputStream, StandardCharsets.UTF_8);
+                }
+                result = new CacheableResource(
+                        new Resource(content, response.header("Content-Type")), eTag, lastModified, expires, true);
+                ResourceSnapshotStore store = snapshotStore;
+                if (store != null) {
+                    store.put(key, result);
+                }
+            }
+            remember(key, result, response.header("Cache-Control"));
+            success = true;
+            return result;
+        } finally {
+            response.release(success);
+        }
+    }
+
+    /**
+     * Send the request with the shared {@link IdpHttpClient}, accepting a compressed response.
+     */
+    private ResourceResponse send(URL url, Map<String, List<String>> headers, int connectTimeout, int readTimeout)
+            throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        }
+        if (readTimeout > 0) {
+            builder.timeout(Duration.ofMillis(readTimeout));
+        }
+        if (!"https".equals(url.getProtocol())) {
+            // no attempt to upgrade plain connections to HTTP/2
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        builder.header("Accept-Encoding", "gzip");
+        HttpResponse<InputStream> response;
+        try {
+            response = IdpHttpClient.get(connectTimeout)
+                    .send(builder.GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrieving " + url);
+        }
+        return new ResourceResponse() {
+            @Override
+            public int statusCode() {
+                return response.statusCode();
+            }
+
+            @Override
+            public String statusMessage() {
+                // HTTP/2 has no reason phrase
+                return null;
+            }
+
+            @Override
+            public String header(String name) {
+                return response.headers().firstValue(name).orElse(null);
+            }
+
+            @Override
+            public InputStream body() throws IOException {
+                InputStream body = response.body();
+                return "gzip".equalsIgnoreCase(header("Content-Encoding")) ? new GZIPInputStream(body) : body;
+            }
+
+            @Override
+            public void release(boolean consumed) throws IOException {
+                // closing a fully read body hands the connection back to the pool
+                response.body().close();
+            }
+        };
+    }
+
+    /**
+     * Send the request with a connection of its own, as {@link DefaultResourceRetriever} does.
+     */
+    private ResourceResponse sendWithConnection(
+            URL url, Map<String, List<String>> headers, int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection con = openHTTPConnection(url);
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        if (sslSocketFactory != null && con instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) con).setSSLSocketFactory(sslSocketFactory);
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                con.addRequestProperty(header.getKey(), value);
+            }
+        }
+        return new ResourceResponse() {
+            @Override
+            public int statusCode() throws IOException {
+                return con.getResponseCode();
+            }
+
+            @Override
+            public String statusMessage() throws IOException {
+                return con.getResponseMessage();
+            }
+
+            @Override
+            public String header(String name) {
+                return con.getHeaderField(name);
+            }
+
+            @Override
+            public InputStream body() throws IOException {
+                return con.getInputStream();
+            }
+
+            @Override
+            public void release(boolean consumed) {
+                if (!consumed) {
+                    // only reuse connections whose response has been fully consumed
+                    con.disconnect();
+                }
+            }
+        };
+    }
+
+    /**
+     * The parts of an HTTP response we need, whichever way the request was sent.
+     */
+    private interface ResourceResponse {
+        int statusCode() throws IOException;
+
+        @CheckForNull
+        String statusMessage() throws IOException;
+
+        @CheckForNull
+        String header(String name);
+
+        InputStream body() throws IOException;
+
+        /**
+         * @param consumed {@code true} if the response has been fully read.
+         */
+        void release(boolean consumed) throws IOException;
+    }
+
+    private void remember(String key, CacheableResource resource, @CheckForNull String cacheControl) {
+        if (!resource.isRevalidatable()
+                || (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-store"))) {
+            cachedResources.remove(key);
+            return;
+        }
+        if (cachedResources.size() >= MAX_CACHED_RESOURCES && !cachedResources.containsKey(key)) {
+            cachedResources.clear();
+        }
+        cachedResources.put(key, resource);
+    }
+
     @Override
     protected HttpURLConnection openHTTPConnection(URL url) throws IOException {
         @SuppressWarnings("deprecation")
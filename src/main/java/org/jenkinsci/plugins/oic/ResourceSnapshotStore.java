@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jose.util.Resource;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps the last known good copy of the documents retrieved from the OpenID provider, such as the discovery metadata
+ * and the signing keys, in {@code JENKINS_HOME}.
+ * After a restart these copies are served straight away while they are revalidated in the background, so logins do
+ * not have to wait for (or fail because of) the provider.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ResourceSnapshotStore implements Saveable {
+
+    private static final Logger LOGGER = Logger.getLogger(ResourceSnapshotStore.class.getName());
+
+    /**
+     * Maximum number of documents kept.
+     * We only ever retrieve a handful of documents so this is only a safety net.
+     */
+    private static final int MAX_SNAPSHOTS = 16;
+
+    private Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final transient AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    public ResourceSnapshotStore() {
+        load();
+    }
+
+    /**
+     * @return the store, or {@code null} when not running inside Jenkins (for example in unit tests).
+     */
+    @CheckForNull
+    static ResourceSnapshotStore get() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return null;
+        }
+        return ExtensionList.lookupSingleton(ResourceSnapshotStore.class);
+    }
+
+    /**
+     * @return the last known good copy of the document at the given URL, or {@code null} if there is none.
+     */
+    @CheckForNull
+    CacheableResource get(@NonNull String url) {
+        Snapshot snapshot = snapshots.get(url);
+        return snapshot == null ? null : snapshot.toCacheableResource();
+    }
+
+    /**
+     * Record a newly retrieved copy of the document at the given URL.
+     * The store is written to disk asynchronously so that callers never wait for it.
+     */
+    void put(@NonNull String url, @NonNull CacheableResource resource) {
+        if (snapshots.size() >= MAX_SNAPSHOTS && !snapshots.containsKey(url)) {
+            snapshots.clear();
+        }
+        snapshots.put(url, new Snapshot(resource));
+        if (saveScheduled.compareAndSet(false, true)) {
+            Timer.get().submit(() -> {
+                saveScheduled.set(false);
+                try {
+                    save();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to save the OpenID provider document snapshots", e);
+                }
+            });
+        }
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(
+                Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), ResourceSnapshotStore.class.getName() + ".xml"));
+    }
+
+    private void load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                file.unmarshal(this);
+            } catch (IOException e) {
+                // the snapshots are only an optimisation, the documents will be retrieved again from the provider
+                LOGGER.log(Level.WARNING, "Failed to load the OpenID provider document snapshots from " + file, e);
+            }
+        }
+        if (snapshots == null) {
+            snapshots = new ConcurrentHashMap<>();
+        }
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        XmlFile file = getConfigFile();
+        file.write(this);
+        SaveableListener.fireOnChange(this, file);
+    }
+
+    /**
+     * The persisted form of a {@link CacheableResource}.
+     */
+    private static final class Snapshot {
+        private final String content;
+        private final String contentType;
+        private final String eTag;
+        private final String lastModified;
+        private final Long expiresMillis;
+
+        Snapshot(CacheableResource resource) {
+            this.content = resource.resource().getContent();
+            this.contentType = resource.resource().getContentType();
+            this.eTag = resource.eTag();
+            this.lastModified = resource.lastModified();
+            this.expiresMillis = resource.expires() == null ? null : resource.expires().toEpochMilli();
+        }
+
+        CacheableResource toCacheableResource() {
+            return new CacheableResource(
+                    new Resource(content, contentType),
+                    eTag,
+                    lastModified,
+                    expiresMillis == null ? null : Instant.ofEpochMilli(expiresMillis),
+                    true);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.Serializable;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.Stapler;
+
+/**
+ * Keeps the credentials in the HTTP session they were obtained in, so they are never written to disk and go away with
+ * the session.
+ * As the credentials are only available to requests of that session, they are not refreshed ahead of their expiry
+ * and requests authenticated otherwise (such as with an API token) do not see them.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class SessionCredentialsStore extends OicCredentialsStore {
+
+    static final String ID = "session";
+
+    private static final String SESSION_ATTRIBUTE = SessionCredentialsStore.class.getName() + ".credentials";
+
+    @NonNull
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @CheckForNull
+    @Override
+    public OicCredentials load(@NonNull User user, @CheckForNull HttpServletRequest request) {
+        HttpSession session = getSession(request, false);
+        if (session == null) {
+            return null;
+        }
+        Object attribute = session.getAttribute(SESSION_ATTRIBUTE);
+        if (attribute instanceof SessionCredentials c && User.idStrategy().equals(c.userId(), user.getId())) {
+            return c.credentials();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean store(
+            @NonNull User user, @NonNull OicCredentials credentials, @CheckForNull HttpServletRequest request)
+            throws IOException {
+        HttpSession session = getSession(request, true);
+        if (session == null) {
+            throw new IOException("The credentials of " + user.getId() + " can only be stored within a request");
+        }
+        session.setAttribute(SESSION_ATTRIBUTE, new SessionCredentials(user.getId(), credentials));
+        return false;
+    }
+
+    @CheckForNull
+    private static HttpSession getSession(@CheckForNull HttpServletRequest request, boolean create) {
+        HttpServletRequest r = request != null ? request : Stapler.getCurrentRequest2();
+        return r == null ? null : r.getSession(create);
+    }
+
+    /**
+     * The credentials of the user the session belongs to.
+     */
+    private record SessionCredentials(String userId, OicCredentials credentials) implements Serializable {}
+}
@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import com.nimbusds.openid.connect.sdk.validators.IDTokenValidator;
+import java.net.MalformedURLException;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.oidc.config.OidcConfiguration;
+import org.pac4j.oidc.metadata.StaticOidcOpMetadataResolver;
+import org.pac4j.oidc.profile.creator.TokenValidator;
+
+/**
+ * A {@link StaticOidcOpMetadataResolver} whose token validator obtains the provider signing keys from the realm wide
+ * {@link JwksKeyCache}, rather than every client retrieving and parsing them again.
+ * Falls back to the default pac4j behaviour when the configuration was not built by an {@link OicSecurityRealm}.
+ */
+@Restricted(NoExternalUse.class)
+public class SharedJwksOidcOpMetadataResolver extends StaticOidcOpMetadataResolver {
+
+    private final OidcConfiguration oidcConfiguration;
+
+    private final OIDCProviderMetadata providerMetadata;
+
+    public SharedJwksOidcOpMetadataResolver(OidcConfiguration configuration, OIDCProviderMetadata metadata) {
+        super(configuration, metadata);
+        this.oidcConfiguration = configuration;
+        this.providerMetadata = metadata;
+    }
+
+    @Override
+    protected TokenValidator createTokenValidator() {
+        JwksKeyCache jwksKeyCache = oidcConfiguration instanceof CustomOidcConfiguration c ? c.getJwksKeyCache() : null;
+        if (jwksKeyCache == null || providerMetadata.getJWKSetURI() == null) {
+            return super.createTokenValidator();
+        }
+        return createTokenValidator(oidcConfiguration, providerMetadata, jwksKeyCache);
+    }
+
+    private static TokenValidator createTokenValidator(
+            OidcConfiguration configuration, OIDCProviderMetadata metadata, JwksKeyCache jwksKeyCache) {
+        // the validators are created by the TokenValidator constructor, so the cache can only be passed along by
+        // capturing it in an anonymous class
+        return new TokenValidator(configuration, metadata) {
+            @Override
+            protected IDTokenValidator createRSATokenValidator(JWSAlgorithm jwsAlgorithm, ClientID clientID) {
+                try {
+                    return new IDTokenValidator(
+                            metadata.getIssuer(),
+                            clientID,
+                            jwksKeyCache.keySelector(metadata.getJWKSetURI().toURL(), jwsAlgorithm),
+                            null);
+                } catch (MalformedURLException e) {
+                    throw new TechnicalException(e);
+                }
+            }
+        };
+    }
+}
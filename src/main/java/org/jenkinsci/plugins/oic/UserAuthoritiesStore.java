@@ -0,0 +1,219 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.SecurityRealm;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Keeps the authorities each user was last granted when logging in or refreshing their credentials, in
+ * {@code JENKINS_HOME}.
+ * They are what the realm answers when asked about a user outside of a login, such as for requests authenticated with
+ * an API token or builds running as that user, so that these see the groups of the user without asking the provider.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class UserAuthoritiesStore implements Saveable {
+
+    private static final Logger LOGGER = Logger.getLogger(UserAuthoritiesStore.class.getName());
+
+    /**
+     * Delay before changes are written, so that bursts of logins are written at once.
+     */
+    private static final long SAVE_DELAY_MILLIS = 10_000;
+
+    /**
+     * The authorities of each user, keyed by {@link jenkins.model.IdStrategy#keyFor(String)}.
+     */
+    private Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * How many of the {@link #snapshots} hold each group, so that {@link #isKnown(String)} does not go through all of
+     * them.
+     */
+    private final transient Map<String, Integer> groupCounts = new ConcurrentHashMap<>();
+
+    private final transient AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    public UserAuthoritiesStore() {
+        load();
+    }
+
+    /**
+     * @return the store, or {@code null} when not running inside Jenkins (for example in unit tests).
+     */
+    @CheckForNull
+    static UserAuthoritiesStore get() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return null;
+        }
+        return ExtensionList.lookupSingleton(UserAuthoritiesStore.class);
+    }
+
+    /**
+     * @param maxAgeMillis how long ago the authorities may have been granted at most.
+     * @return the authorities last granted to the user, or {@code null} if they are not known or too old.
+     */
+    @CheckForNull
+    Set<GrantedAuthority> get(@NonNull String userId, long nowMillis, long maxAgeMillis) {
+        Snapshot snapshot = snapshots.get(User.idStrategy().keyFor(userId));
+        if (snapshot == null || nowMillis - snapshot.grantedAtMillis > maxAgeMillis) {
+            return null;
+        }
+        List<GrantedAuthority> authorities = new ArrayList<>(snapshot.groups.size() + 1);
+        authorities.add(SecurityRealm.AUTHENTICATED_AUTHORITY2);
+        for (String group : snapshot.groups) {
+            authorities.add(AuthoritySets.intern(group));
+        }
+        return AuthoritySets.of(authorities);
+    }
+
+    /**
+     * @return {@code true} if at least one user was last granted the given authority.
+     */
+    boolean isKnown(@NonNull String authority) {
+        return groupCounts.containsKey(authority);
+    }
+
+    /**
+     * Record the authorities just granted to a user.
+     * The store is written to disk asynchronously so that callers never wait for it.
+     */
+    void put(@NonNull String userId, @NonNull Collection<? extends GrantedAuthority> authorities, long nowMillis) {
+        List<String> groups = new ArrayList<>(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            if (!SecurityRealm.AUTHENTICATED_AUTHORITY2.equals(authority)) {
+                groups.add(authority.getAuthority());
+            }
+        }
+        Snapshot snapshot = new Snapshot(groups, nowMillis);
+        snapshots.compute(User.idStrategy().keyFor(userId), (key, previous) -> {
+            uncount(previous);
+            count(snapshot);
+            return snapshot;
+        });
+        scheduleSave();
+    }
+
+    /**
+     * Forget the authorities of a user who was deleted.
+     */
+    void remove(@NonNull String userId) {
+        Snapshot removed = snapshots.remove(User.idStrategy().keyFor(userId));
+        if (removed != null) {
+            uncount(removed);
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Forget the authorities that are too old to ever be reported again.
+     */
+    void prune(long nowMillis, long maxAgeMillis) {
+        for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+            Snapshot snapshot = entry.getValue();
+            if (nowMillis - snapshot.grantedAtMillis > maxAgeMillis && snapshots.remove(entry.getKey(), snapshot)) {
+                uncount(snapshot);
+            }
+        }
+    }
+
+    private void count(@CheckForNull Snapshot snapshot) {
+        if (snapshot != null) {
+            for (String group : snapshot.groups) {
+                groupCounts.merge(group, 1, Integer::sum);
+            }
+        }
+    }
+
+    private void uncount(@CheckForNull Snapshot snapshot) {
+        if (snapshot != null) {
+            for (String group : snapshot.groups) {
+                groupCounts.computeIfPresent(group, (g, count) -> count == 1 ? null : count - 1);
+            }
+        }
+    }
+
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            Timer.get()
+                    .schedule(
+                            () -> {
+                                saveScheduled.set(false);
+                                try {
+                                    save();
+                                } catch (IOException e) {
+                                    LOGGER.log(Level.WARNING, "Failed to save the authorities of the OpenID users", e);
+                                }
+                            },
+                            SAVE_DELAY_MILLIS,
+                            TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(
+                Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), UserAuthoritiesStore.class.getName() + ".xml"));
+    }
+
+    private void load() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                file.unmarshal(this);
+            } catch (IOException e) {
+                // the users get their authorities back when they next log in
+                LOGGER.log(Level.WARNING, "Failed to load the authorities of the OpenID users from " + file, e);
+            }
+        }
+        if (snapshots == null) {
+            snapshots = new ConcurrentHashMap<>();
+        }
+        for (Snapshot snapshot : snapshots.values()) {
+            count(snapshot);
+        }
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        prune(System.currentTimeMillis(), OicSecurityRealm.AUTHORITIES_MAX_AGE_MILLIS);
+        XmlFile file = getConfigFile();
+        file.write(this);
+        SaveableListener.fireOnChange(this, file);
+    }
+
+    /**
+     * The persisted authorities of a user, other than {@link SecurityRealm#AUTHENTICATED_AUTHORITY2}.
+     */
+    private static final class Snapshot {
+        private final List<String> groups;
+        private final long grantedAtMillis;
+
+        Snapshot(List<String> groups, long grantedAtMillis) {
+            this.groups = groups;
+            this.grantedAtMillis = grantedAtMillis;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import com.nimbusds.openid.connect.sdk.UserInfoRequest;
+import com.nimbusds.openid.connect.sdk.UserInfoResponse;
+import com.nimbusds.openid.connect.sdk.UserInfoSuccessResponse;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.IOException;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.oidc.config.OidcConfiguration;
+
+/**
+ * Retrieves the claims of users from the userinfo endpoint of the provider on behalf of the realm, which only does so
+ * when the ID token lacks some of the claims it maps, rather than on every login and token refresh as pac4j does.
+ * The claims retrieved for a subject can optionally be reused for a while, which saves the call on most token
+ * refreshes with providers whose ID tokens never carry some of the mapped claims.
+ */
+class UserInfoRetriever {
+
+    private static final Logger LOGGER = Logger.getLogger(UserInfoRetriever.class.getName());
+
+    /**
+     * Whether the realm calls the userinfo endpoint only when the ID token lacks a mapped claim, disabled by default.
+     */
+    private static final boolean SKIP_REDUNDANT_USER_INFO =
+            SystemProperties.getBoolean(OicSecurityRealm.class.getName() + ".skipRedundantUserInfo");
+
+    /**
+     * Time during which the claims retrieved for a subject are reused by its token refreshes, {@code 0} (the default)
+     * disables the reuse.
+     */
+    private static final long USER_INFO_CACHE_MILLIS =
+            SystemProperties.getLong(OicSecurityRealm.class.getName() + ".userInfoCacheMillis", 0L);
+
+    /**
+     * Maximum number of subjects whose claims are kept.
+     */
+    private static final int MAX_CACHED_SUBJECTS = 10_000;
+
+    private final long cacheMillis;
+
+    private final LongSupplier clockMillis;
+
+    private final Map<String, CachedClaims> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param cacheMillis the time during which the claims of a subject can be reused, {@code 0} to never reuse them.
+     * @param clockMillis the current time in milliseconds.
+     */
+    UserInfoRetriever(long cacheMillis, @NonNull LongSupplier clockMillis) {
+        this.cacheMillis = cacheMillis;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * @return the retriever to use instead of letting pac4j call the userinfo endpoint, or {@code null} if pac4j is to
+     *     keep calling it.
+     */
+    @CheckForNull
+    static UserInfoRetriever create() {
+        if (!SKIP_REDUNDANT_USER_INFO) {
+            return null;
+        }
+        return new UserInfoRetriever(USER_INFO_CACHE_MILLIS, System::currentTimeMillis);
+    }
+
+    /**
+     * Retrieve the claims of a subject.
+     * @param reuse {@code true} to accept claims retrieved earlier for the same subject.
+     * @param request sends the request to the userinfo endpoint.
+     * @return the claims, or {@code null} if the provider would not give them.
+     * @throws TechnicalException if the claims are not those of the given subject.
+     */
+    @CheckForNull
+    Map<String, Object> retrieve(@NonNull String subject, boolean reuse, @NonNull Request request)
+            throws IOException, ParseException {
+        long now = clockMillis.getAsLong();
+        if (reuse) {
+            CachedClaims cached = cache.get(subject);
+            if (cached != null && now < cached.expiresAtMillis()) {
+                OicMetrics.Cache.USERINFO.hit();
+                return cached.claims();
+            }
+        }
+        OicMetrics.Cache.USERINFO.miss();
+        Map<String, Object> claims = request.send();
+        if (claims == null) {
+            return null;
+        }
+        // the claims are mapped along with the ID token, they must be about the same user
+        if (!subject.equals(claims.get("sub"))) {
+            throw new TechnicalException("The userinfo response is not about the subject of the ID token");
+        }
+        claims = Collections.unmodifiableMap(new HashMap<>(claims));
+        if (cacheMillis > 0) {
+            if (cache.size() >= MAX_CACHED_SUBJECTS) {
+                cache.values().removeIf(c -> now >= c.expiresAtMillis());
+            }
+            if (cache.size() < MAX_CACHED_SUBJECTS) {
+                cache.put(subject, new CachedClaims(claims, now + cacheMillis));
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * Request the claims of the user the access token was issued to.
+     * @param configuration the configuration of the client, which sets up the connection to the provider.
+     */
+    @NonNull
+    static Request request(
+            @NonNull OidcConfiguration configuration, @NonNull URI endpoint, @NonNull AccessToken accessToken) {
+        return () -> {
+            HTTPRequest httpRequest =
+                    new UserInfoRequest(endpoint, new BearerAccessToken(accessToken.getValue())).toHTTPRequest();
+            configuration.configureHttpRequest(httpRequest);
+            HTTPResponse httpResponse = IdpEndpoint.USERINFO.call(httpRequest::send);
+            UserInfoResponse response;
+            try {
+                response = UserInfoResponse.parse(httpResponse);
+            } catch (com.nimbusds.oauth2.sdk.ParseException e) {
+                throw new TechnicalException(e);
+            }
+            if (!response.indicatesSuccess()) {
+                // as with pac4j, the user is then mapped from the ID token alone
+                LOGGER.warning("Bad userinfo response, error=" + response.toErrorResponse().getErrorObject());
+                return null;
+            }
+            UserInfoSuccessResponse success = response.toSuccessResponse();
+            if (success.getUserInfo() != null) {
+                return success.getUserInfo().toJSONObject();
+            }
+            return success.getUserInfoJWT().getJWTClaimsSet().getClaims();
+        };
+    }
+
+    /**
+     * A request to the userinfo endpoint.
+     */
+    @FunctionalInterface
+    interface Request {
+        @CheckForNull
+        Map<String, Object> send() throws IOException, ParseException;
+    }
+
+    private record CachedClaims(Map<String, Object> claims, long expiresAtMillis) {}
+}
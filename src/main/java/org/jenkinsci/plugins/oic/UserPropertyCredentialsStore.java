@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps the credentials as a property of the user, so they are saved along with it in its {@code config.xml}.
+ * This is the default, and what all versions before the store became pluggable did.
+ */
+@Extension(ordinal = 100)
+@Restricted(NoExternalUse.class)
+public class UserPropertyCredentialsStore extends OicCredentialsStore {
+
+    static final String ID = "userProperty";
+
+    @NonNull
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @CheckForNull
+    @Override
+    public OicCredentials load(@NonNull User user, @CheckForNull HttpServletRequest request) {
+        return user.getProperty(OicCredentials.class);
+    }
+
+    @Override
+    public boolean store(
+            @NonNull User user, @NonNull OicCredentials credentials, @CheckForNull HttpServletRequest request)
+            throws IOException {
+        // saves the user straight away unless called within a BulkChange
+        user.addProperty(credentials);
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.oic.monitor;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+import hudson.security.SecurityRealm;
+import java.util.Date;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.oic.CircuitBreaker;
+import org.jenkinsci.plugins.oic.Messages;
+import org.jenkinsci.plugins.oic.OicSecurityRealm;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Warns administrators while token refreshes fail fast because the token endpoint of the provider keeps failing.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class OicTokenEndpointMonitor extends AdministrativeMonitor {
+
+    @Override
+    public String getDisplayName() {
+        return Messages.OicSecurityRealm_tokenEndpointMonitor_DisplayName();
+    }
+
+    @Override
+    public boolean isActivated() {
+        CircuitBreaker breaker = getCircuitBreaker();
+        return breaker != null && breaker.getState() != CircuitBreaker.State.CLOSED;
+    }
+
+    @CheckForNull
+    public CircuitBreaker getCircuitBreaker() {
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (securityRealm instanceof OicSecurityRealm oicSecurityRealm) {
+            return oicSecurityRealm.getTokenEndpointCircuitBreaker();
+        }
+        return null;
+    }
+
+    /**
+     * @return the time of the failure which last kept the circuit open.
+     */
+    @CheckForNull
+    public Date getLastFailure() {
+        CircuitBreaker breaker = getCircuitBreaker();
+        return breaker == null ? null : new Date(breaker.getOpenedAtMillis());
+    }
+}
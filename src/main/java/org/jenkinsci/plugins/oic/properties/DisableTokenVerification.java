@@ -10,6 +10,7 @@ import org.jenkinsci.plugins.oic.OicServerConfiguration;
 import org.jenkinsci.plugins.oic.OidcProperty;
 import org.jenkinsci.plugins.oic.OidcPropertyDescriptor;
 import org.jenkinsci.plugins.oic.OidcPropertyExecution;
+import org.jenkinsci.plugins.oic.SharedJwksOidcOpMetadataResolver;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.pac4j.oidc.client.OidcClient;
 import org.pac4j.oidc.config.OidcConfiguration;
@@ -74,7 +75,7 @@ public class DisableTokenVerification extends OidcProperty {
         public void getFallbackConfiguration(
                 @NonNull OicServerConfiguration serverConfiguration, @NonNull OidcConfiguration configuration) {
             var opMetadataResolver =
-                    new StaticOidcOpMetadataResolver(configuration, serverConfiguration.toProviderMetadata());
+                    new SharedJwksOidcOpMetadataResolver(configuration, serverConfiguration.toProviderMetadata());
             configuration.setOpMetadataResolver(opMetadataResolver);
             opMetadataResolver.init();
         }
@@ -18,12 +18,17 @@ import java.io.IOException;
 import java.io.Serial;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import jenkins.security.FIPS140;
 import jenkins.security.SecurityListener;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.oic.Messages;
+import org.jenkinsci.plugins.oic.OicMetrics;
 import org.jenkinsci.plugins.oic.OicUserDetails;
 import org.jenkinsci.plugins.oic.OidcProperty;
 import org.jenkinsci.plugins.oic.OidcPropertyDescriptor;
@@ -35,6 +40,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
 
 /**
  * Escape hatch for authentication, allowing users to log in with a username and password.
@@ -89,49 +95,128 @@ public class EscapeHatch extends OidcProperty {
     }
 
     /**
-     * Random generator needed for robust random wait
+     * Maximum number of attempts per minute for a user name from a client address.
      */
-    private static final Random RANDOM = new Random();
+    @SuppressWarnings("boxing")
+    private static final int CLIENT_USERNAME_ATTEMPTS_PER_MINUTE =
+            SystemProperties.getInteger(EscapeHatch.class.getName() + ".clientUsernameAttemptsPerMinute", 5);
 
-    private void randomWait() {
-        try {
-            Thread.sleep(1000L + RANDOM.nextLong(1000L));
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-    }
+    /**
+     * Maximum number of attempts per minute for a user name from all client addresses, only meant to slow down
+     * attacks spread over many addresses: set well above what a single address may do, so that an attacker cannot
+     * easily lock the user out of the escape hatch.
+     */
+    @SuppressWarnings("boxing")
+    private static final int USERNAME_ATTEMPTS_PER_MINUTE =
+            SystemProperties.getInteger(EscapeHatch.class.getName() + ".usernameAttemptsPerMinute", 60);
+
+    /**
+     * Maximum number of attempts per minute from a client address.
+     */
+    @SuppressWarnings("boxing")
+    private static final int CLIENT_ATTEMPTS_PER_MINUTE =
+            SystemProperties.getInteger(EscapeHatch.class.getName() + ".clientAttemptsPerMinute", 10);
+
+    /**
+     * Maximum number of passwords checked at the same time, as each check deliberately takes a lot of CPU.
+     * Further attempts are rejected right away rather than holding a request thread until a check ends.
+     */
+    @SuppressWarnings("boxing")
+    private static final int MAX_CONCURRENT_CHECKS =
+            SystemProperties.getInteger(EscapeHatch.class.getName() + ".maxConcurrentChecks", 2);
+
+    private static final int MAX_THROTTLED_KEYS = 10_000;
+
+    private static final LoginThrottle CLIENT_USERNAME_THROTTLE =
+            new LoginThrottle(CLIENT_USERNAME_ATTEMPTS_PER_MINUTE, MAX_THROTTLED_KEYS, System::currentTimeMillis);
+
+    private static final LoginThrottle USERNAME_THROTTLE =
+            new LoginThrottle(USERNAME_ATTEMPTS_PER_MINUTE, MAX_THROTTLED_KEYS, System::currentTimeMillis);
+
+    private static final LoginThrottle CLIENT_THROTTLE =
+            new LoginThrottle(CLIENT_ATTEMPTS_PER_MINUTE, MAX_THROTTLED_KEYS, System::currentTimeMillis);
+
+    private static final Semaphore CHECKS = new Semaphore(Math.max(1, MAX_CONCURRENT_CHECKS));
+
+    private static final Pattern B_CRYPT_COST_PATTERN = Pattern.compile("\\A\\$[^$]+\\$(\\d\\d)\\$");
+
+    /**
+     * Hashes checked against when the user name does not match, keyed by their cost, so that checking takes as long
+     * either way.
+     */
+    private static final Map<Integer, String> UNKNOWN_USER_HASHES = new ConcurrentHashMap<>();
 
     @NonNull
     @Override
     public Optional<Authentication> authenticate(@NonNull Authentication authentication) {
         if (authentication instanceof UsernamePasswordAuthenticationToken) {
-            randomWait(); // to slowdown brute forcing
-            if (check(
-                    authentication.getPrincipal().toString(),
-                    authentication.getCredentials().toString())) {
-                List<GrantedAuthority> grantedAuthorities = new ArrayList<>();
-                grantedAuthorities.add(SecurityRealm.AUTHENTICATED_AUTHORITY2);
-                if (isNotBlank(group)) {
-                    grantedAuthorities.add(new SimpleGrantedAuthority(group));
-                }
-                UsernamePasswordAuthenticationToken token =
-                        new UsernamePasswordAuthenticationToken(username, "", grantedAuthorities);
-                SecurityContextHolder.getContext().setAuthentication(token);
-                OicUserDetails userDetails = new OicUserDetails(username, grantedAuthorities);
-                SecurityListener.fireAuthenticated2(userDetails);
-                return Optional.of(token);
-            } else {
-                throw new BadCredentialsException("Wrong username and password: " + authentication);
+            try (OicMetrics.Sample sample = OicMetrics.Operation.ESCAPE_HATCH.start()) {
+                sample.user(authentication.getName());
+                return Optional.of(authenticate((UsernamePasswordAuthenticationToken) authentication, sample));
             }
         }
         return Optional.empty();
     }
 
+    private Authentication authenticate(UsernamePasswordAuthenticationToken authentication, OicMetrics.Sample sample) {
+        // excess attempts are rejected at once rather than slowed down, which would hold on to a request thread
+        String clientAddress = authentication.getDetails() instanceof WebAuthenticationDetails details
+                ? details.getRemoteAddress()
+                : null;
+        if ((clientAddress != null && !CLIENT_THROTTLE.tryAcquire(clientAddress))
+                || !CLIENT_USERNAME_THROTTLE.tryAcquire(authentication.getName() + "@" + clientAddress)
+                || !USERNAME_THROTTLE.tryAcquire(authentication.getName())) {
+            sample.failed("throttled");
+            throw new BadCredentialsException("Too many login attempts: " + authentication);
+        }
+        if (!CHECKS.tryAcquire()) {
+            sample.failed("busy");
+            throw new BadCredentialsException("Too many concurrent login attempts: " + authentication);
+        }
+        boolean matches;
+        try {
+            matches = check(
+                    authentication.getPrincipal().toString(),
+                    authentication.getCredentials().toString());
+        } finally {
+            CHECKS.release();
+        }
+        if (!matches) {
+            sample.failed("bad_credentials");
+            throw new BadCredentialsException("Wrong username and password: " + authentication);
+        }
+        List<GrantedAuthority> grantedAuthorities = new ArrayList<>();
+        grantedAuthorities.add(SecurityRealm.AUTHENTICATED_AUTHORITY2);
+        if (isNotBlank(group)) {
+            grantedAuthorities.add(new SimpleGrantedAuthority(group));
+        }
+        UsernamePasswordAuthenticationToken token =
+                new UsernamePasswordAuthenticationToken(username, "", grantedAuthorities);
+        SecurityContextHolder.getContext().setAuthentication(token);
+        OicUserDetails userDetails = new OicUserDetails(username, grantedAuthorities);
+        SecurityListener.fireAuthenticated2(userDetails);
+        sample.succeeded();
+        return token;
+    }
+
     /**
      * Check a given username and password against the configured ones.
      */
     public boolean check(@NonNull String username, @CheckForNull String password) {
-        return username.equals(this.username) && BCrypt.checkpw(password, Secret.toString(this.secret));
+        boolean usernameMatches = username.equals(this.username);
+        String hash = Secret.toString(this.secret);
+        // the password is checked even for another user, so that the time taken does not reveal the user name
+        boolean passwordMatches = BCrypt.checkpw(password, usernameMatches ? hash : unknownUserHash(hash));
+        return usernameMatches && passwordMatches;
+    }
+
+    /**
+     * @return a hash of the same cost as the given one, to check the passwords of unknown users against.
+     */
+    static String unknownUserHash(@NonNull String hash) {
+        Matcher matcher = B_CRYPT_COST_PATTERN.matcher(hash);
+        int cost = matcher.find() ? Integer.parseInt(matcher.group(1)) : 10;
+        return UNKNOWN_USER_HASHES.computeIfAbsent(cost, c -> BCrypt.hashpw("", BCrypt.gensalt(c)));
     }
 
     public static class DescriptorImpl extends OidcPropertyDescriptor {
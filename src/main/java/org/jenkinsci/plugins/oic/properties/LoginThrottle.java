@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.oic.properties;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of login attempts made for a given key, such as a user name or a client address, with a token
+ * bucket per key: each attempt takes a token, and tokens are given back at a fixed rate up to the size of the bucket.
+ * The buckets are held in a bounded table, from which the buckets that have filled up again are evicted.
+ * Once the table is full, the keys without a bucket share a single one, so that an attacker cannot evade the limit
+ * (or evict the buckets of others) by spreading attempts over many keys.
+ */
+final class LoginThrottle {
+
+    private final int capacity;
+
+    private final long millisPerToken;
+
+    private final int maxBuckets;
+
+    private final LongSupplier clockMillis;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final Bucket overflow;
+
+    /**
+     * @param attemptsPerMinute the sustained rate of attempts allowed for a key, which is also the size of a burst.
+     * @param maxBuckets the maximum number of keys tracked separately.
+     * @param clockMillis the current time in milliseconds.
+     */
+    LoginThrottle(int attemptsPerMinute, int maxBuckets, @NonNull LongSupplier clockMillis) {
+        this.capacity = Math.max(1, attemptsPerMinute);
+        this.millisPerToken = 60_000L / capacity;
+        this.maxBuckets = maxBuckets;
+        this.clockMillis = clockMillis;
+        this.overflow = new Bucket(capacity, clockMillis.getAsLong());
+    }
+
+    /**
+     * Take a token for an attempt.
+     * @return {@code false} if the attempt should be rejected.
+     */
+    boolean tryAcquire(@NonNull String key) {
+        long now = clockMillis.getAsLong();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxBuckets) {
+                evictIdle(now);
+            }
+            bucket = buckets.size() >= maxBuckets
+                    ? overflow
+                    : buckets.computeIfAbsent(key, k -> new Bucket(capacity, now));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    private void evictIdle(long now) {
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    private final class Bucket {
+
+        private double tokens;
+
+        private long updatedAtMillis;
+
+        Bucket(int tokens, long now) {
+            this.tokens = tokens;
+            this.updatedAtMillis = now;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        /**
+         * @return {@code true} if the bucket is full, meaning that it holds no more than a new one would.
+         */
+        synchronized boolean isIdle(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            if (now > updatedAtMillis) {
+                tokens = Math.min(capacity, tokens + (double) (now - updatedAtMillis) / millisPerToken);
+                updatedAtMillis = now;
+            }
+        }
+    }
+}
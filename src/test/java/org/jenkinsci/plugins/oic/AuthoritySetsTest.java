@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.security.SecurityRealm;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+class AuthoritySetsTest {
+
+    @Test
+    void usersWithTheSameGroupsShareTheirAuthorities() {
+        Set<GrantedAuthority> first = AuthoritySets.of(List.of(
+                SecurityRealm.AUTHENTICATED_AUTHORITY2,
+                new SimpleGrantedAuthority("group1"),
+                new SimpleGrantedAuthority("group2"),
+                new SimpleGrantedAuthority("group1")));
+        Set<GrantedAuthority> second = AuthoritySets.of(List.of(
+                SecurityRealm.AUTHENTICATED_AUTHORITY2,
+                AuthoritySets.intern("group2"),
+                AuthoritySets.intern("group1")));
+
+        assertSame(first, second);
+        assertEquals(3, first.size());
+        assertTrue(first.contains(new SimpleGrantedAuthority("group2")));
+        assertSame(AuthoritySets.intern("group1"), AuthoritySets.intern("group1"));
+        assertSame(SecurityRealm.AUTHENTICATED_AUTHORITY2, AuthoritySets.intern("authenticated"));
+        assertThrows(UnsupportedOperationException.class, () -> first.add(new SimpleGrantedAuthority("group3")));
+    }
+}
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class CacheableResourceTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    void testParseExpires_noHeaders() {
+        assertNull(CacheableResource.parseExpires(null, null, null, NOW));
+    }
+
+    @Test
+    void testParseExpires_maxAge() {
+        assertEquals(NOW.plusSeconds(300), CacheableResource.parseExpires("public, max-age=300", null, null, NOW));
+        assertEquals(NOW.plusSeconds(200), CacheableResource.parseExpires("max-age=300", null, "100", NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("max-age=300", null, "400", NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("max-age=forever", null, null, NOW));
+    }
+
+    @Test
+    void testParseExpires_noCache() {
+        assertEquals(NOW, CacheableResource.parseExpires("no-cache", "Mon, 01 Jan 2024 01:00:00 GMT", null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("private, no-store", null, null, NOW));
+    }
+
+    @Test
+    void testParseExpires_noCacheWhateverTheOrder() {
+        assertEquals(NOW, CacheableResource.parseExpires("max-age=300, no-cache", null, null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("no-cache, max-age=300", null, null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("max-age=300, no-store", null, null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("no-store, max-age=300", null, null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("max-age=300, no-cache=\"Set-Cookie\"", null, null, NOW));
+    }
+
+    @Test
+    void testParseExpires_directivesAreCaseInsensitive() {
+        assertEquals(NOW.plusSeconds(300), CacheableResource.parseExpires("Public, MAX-AGE=300", null, null, NOW));
+        assertEquals(NOW.plusSeconds(300), CacheableResource.parseExpires("max-age = \"300\"", null, null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires("Max-Age=300, No-Store", null, null, NOW));
+    }
+
+    @Test
+    void testParseExpires_otherDirectivesFallBackToExpires() {
+        assertEquals(
+                Instant.parse("2024-01-01T01:00:00Z"),
+                CacheableResource.parseExpires("public, must-revalidate", "Mon, 01 Jan 2024 01:00:00 GMT", null, NOW));
+    }
+
+    @Test
+    void testParseExpires_cacheControlTakesPrecedenceOverExpires() {
+        assertEquals(
+                NOW.plusSeconds(60),
+                CacheableResource.parseExpires("max-age=60", "Mon, 01 Jan 2024 01:00:00 GMT", null, NOW));
+    }
+
+    @Test
+    void testParseExpires_expires() {
+        assertEquals(
+                Instant.parse("2024-01-01T01:00:00Z"),
+                CacheableResource.parseExpires(null, "Mon, 01 Jan 2024 01:00:00 GMT", null, NOW));
+        assertEquals(NOW, CacheableResource.parseExpires(null, "0", null, NOW));
+    }
+}
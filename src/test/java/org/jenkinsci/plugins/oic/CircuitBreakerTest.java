@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final CircuitBreaker breaker = new CircuitBreaker("token", 3, 1_000, now::get);
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        failOnce();
+        failOnce();
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        failOnce();
+        failOnce();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failOnce();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void probesWithASingleCall() {
+        failOnce();
+        failOnce();
+        failOnce();
+        now.addAndGet(999);
+        assertFalse(breaker.tryAcquire());
+        now.addAndGet(1);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        // a failed probe opens the circuit again for the whole time
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now.addAndGet(999);
+        assertFalse(breaker.tryAcquire());
+        now.addAndGet(1);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void ignoredCallsAreNotFailures() {
+        failOnce();
+        failOnce();
+        assertTrue(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getConsecutiveFailures());
+
+        failOnce();
+        now.addAndGet(1_000);
+        assertTrue(breaker.tryAcquire());
+        // an ignored probe lets the next call probe the provider at once
+        breaker.onIgnored();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private void failOnce() {
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ClaimsMapperTest {
+
+    @Test
+    void userInfoTakesPrecedenceOverIdToken() throws Exception {
+        PlainJWT idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                .subject("token-sub")
+                .claim("email", "token@example.com")
+                .claim("user", Map.of("name", "Token Name", "id", 100))
+                .claim("groups", List.of("token-group"))
+                .claim("tenant", "acme")
+                .build());
+        Map<String, Object> userInfo =
+                Map.of("email", " ", "picture", URI.create("https://example.com/me.png"), "groups", List.of("g"));
+
+        ClaimsMapper.MappedClaims claims =
+                new ClaimsMapper("sub", "email", "user.name", "groups", "tenant").map(idToken, userInfo);
+
+        assertEquals("token-sub", claims.username());
+        // blank in the user info
+        assertEquals("token@example.com", claims.email());
+        assertEquals("Token Name", claims.fullName());
+        assertEquals("https://example.com/me.png", claims.avatarUrl());
+        assertEquals(List.of("g"), claims.groups());
+        assertEquals("acme", claims.tokenFieldToCheck());
+    }
+
+    @Test
+    void dottedPathsAndExpressionsAgree() throws Exception {
+        PlainJWT idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                .claim("user", Map.of("name", "john", "surname", "dow", "id", 100))
+                .claim("user.name", "quoted")
+                .build());
+
+        assertEquals("100", new ClaimsMapper("user.id", null, null, null, null)
+                .map(idToken, null)
+                .username());
+        assertNull(new ClaimsMapper("user", null, null, null, null)
+                .map(idToken, null)
+                .username());
+        assertNull(new ClaimsMapper("user.name.first", null, null, null, null)
+                .map(idToken, null)
+                .username());
+        assertEquals("quoted", new ClaimsMapper("\"user.name\"", null, null, null, null)
+                .map(idToken, null)
+                .username());
+        assertEquals("john dow", new ClaimsMapper("[user.name, user.surname] | join(' ', @)", null, null, null, null)
+                .map(idToken, null)
+                .username());
+        assertNull(new ClaimsMapper("[user)", null, null, null, null)
+                .map(idToken, null)
+                .username());
+    }
+
+    @Test
+    void idTokenSatisfiesTheMappingWhenItCarriesAllMappedClaims() throws Exception {
+        PlainJWT idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                .subject("sub")
+                .claim("email", "user@example.com")
+                .claim("groups", List.of("g"))
+                .claim("blank", " ")
+                .build());
+
+        assertTrue(new ClaimsMapper("sub", "email", null, "groups", null).isSatisfiedBy(idToken));
+        assertFalse(new ClaimsMapper("sub", "email", "name", "groups", null).isSatisfiedBy(idToken));
+        assertFalse(new ClaimsMapper("sub", "blank", null, null, null).isSatisfiedBy(idToken));
+        assertFalse(new ClaimsMapper("sub", null, null, "roles", null).isSatisfiedBy(idToken));
+        assertFalse(new ClaimsMapper("sub", null, null, null, null).isSatisfiedBy(null));
+    }
+
+    @Test
+    void fingerprintTellsWhetherTheUserChanged() {
+        ClaimsMapper.MappedClaims claims =
+                new ClaimsMapper.MappedClaims("user", "user@example.com", "User", null, List.of("a", "b"), "x");
+
+        assertArrayEquals(
+                claims.fingerprint(),
+                new ClaimsMapper.MappedClaims("user", "user@example.com", "User", null, List.of("a", "b"), "y")
+                        .fingerprint());
+        assertFalse(Arrays.equals(
+                claims.fingerprint(),
+                new ClaimsMapper.MappedClaims("user", "user@example.com", "User", null, List.of("a"), "x")
+                        .fingerprint()));
+        // the same characters spread differently over the fields
+        assertFalse(Arrays.equals(
+                claims.fingerprint(),
+                new ClaimsMapper.MappedClaims("use", "ruser@example.com", "User", null, List.of("a", "b"), "x")
+                        .fingerprint()));
+    }
+}
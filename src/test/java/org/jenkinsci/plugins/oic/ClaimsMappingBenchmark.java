@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Mapping the claims of a user to their name, email and groups, then to their authorities, at login and refresh.
+ */
+@JmhBenchmark
+public class ClaimsMappingBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        @Param({"10", "500"})
+        int groupCount;
+
+        OicSecurityRealm realm;
+
+        ClaimsMapper dottedPaths;
+
+        ClaimsMapper jmesPath;
+
+        JWT idToken;
+
+        Map<String, Object> userInfo;
+
+        ClaimsMapper.MappedClaims claims;
+
+        @Override
+        public void setup() throws Exception {
+            realm = new TestRealm.Builder("http://localhost/")
+                    .WithEmailFieldName("email")
+                            .WithGroupsFieldName("groups")
+                            .build();
+            Jenkins.get().setSecurityRealm(realm);
+            dottedPaths = new ClaimsMapper("preferred_username", "email", "profile.name", "groups", "tenant");
+            jmesPath = new ClaimsMapper(
+                    "preferred_username", "email", "profile.name", "groups[?starts_with(@, 'team-')]", "tenant");
+
+            List<String> groups = new ArrayList<>();
+            for (int i = 0; i < groupCount; i++) {
+                groups.add((i % 2 == 0 ? "team-" : "role-") + i);
+            }
+            idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                    .subject("0b8e4e6c-5b8e-4c1a-9d55-2f0c4e3b7a61")
+                    .issuer(TestRealm.ISSUER)
+                    .audience(TestRealm.CLIENT_ID)
+                    .claim("preferred_username", "jdoe")
+                    .claim("email", "jdoe@example.com")
+                    .claim("profile", Map.of("name", "John Doe", "locale", "en"))
+                    .claim("tenant", "acme")
+                    .claim("groups", groups)
+                    .build());
+            // the user info usually repeats the profile claims, and is where providers put the groups
+            userInfo = Map.of(
+                    "sub", "0b8e4e6c-5b8e-4c1a-9d55-2f0c4e3b7a61",
+                    "preferred_username", "jdoe",
+                    "email", "jdoe@example.com",
+                    "email_verified", true,
+                    "profile", Map.of("name", "John Doe", "locale", "en"),
+                    "groups", groups);
+            claims = dottedPaths.map(idToken, userInfo);
+        }
+    }
+
+    @Benchmark
+    public ClaimsMapper.MappedClaims mapDottedPaths(JenkinsState state) throws Exception {
+        return state.dottedPaths.map(state.idToken, state.userInfo);
+    }
+
+    @Benchmark
+    public ClaimsMapper.MappedClaims mapJmesPath(JenkinsState state) throws Exception {
+        return state.jmesPath.map(state.idToken, state.userInfo);
+    }
+
+    @Benchmark
+    public List<GrantedAuthority> determineAuthorities(JenkinsState state) {
+        return state.realm.determineAuthorities(state.claims);
+    }
+}
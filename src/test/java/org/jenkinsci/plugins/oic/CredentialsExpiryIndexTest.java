@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.User;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class CredentialsExpiryIndexTest {
+
+    @Test
+    void usersAreKeyedByTheirIdStrategy(JenkinsRule jenkinsRule) {
+        CredentialsExpiryIndex index = new CredentialsExpiryIndex();
+        // the default strategy is case insensitive
+        index.update("Alice", 2000L);
+        assertTrue(index.isValid("alice", 1000L));
+        assertFalse(index.isValid("ALICE", 3000L));
+
+        index.remove("aLiCe");
+        assertFalse(index.isValid("Alice", 1000L));
+    }
+
+    @Test
+    void deletedUsersAreForgotten(JenkinsRule jenkinsRule) throws Exception {
+        TestRealm realm = new TestRealm(new TestRealm.Builder("http://ignored.test/").WithAutomanualconfigure(false));
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        User user = User.getById("bob", true);
+        user.save();
+        realm.getCredentialsExpiryIndex().update("bob", null);
+        assertTrue(realm.getCredentialsExpiryIndex().isValid("bob", Long.MAX_VALUE - 1));
+
+        user.delete();
+        assertFalse(realm.getCredentialsExpiryIndex().isValid("bob", 0L));
+    }
+
+    @Test
+    void eachRealmHasItsOwnIndex(JenkinsRule jenkinsRule) throws Exception {
+        TestRealm realm = new TestRealm(new TestRealm.Builder("http://ignored.test/").WithAutomanualconfigure(false));
+        realm.getCredentialsExpiryIndex().update("carol", null);
+
+        TestRealm reconfigured =
+                new TestRealm(new TestRealm.Builder("http://ignored.test/").WithAutomanualconfigure(false));
+        assertFalse(reconfigured.getCredentialsExpiryIndex().isValid("carol", 0L));
+    }
+}
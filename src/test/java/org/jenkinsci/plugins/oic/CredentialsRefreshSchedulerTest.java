@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.oic;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import hudson.model.User;
+import hudson.util.Secret;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.oic.properties.DisableNonce;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class CredentialsRefreshSchedulerTest {
+
+    @RegisterExtension
+    static WireMockExtension wireMock = WireMockExtension.newInstance()
+            .failOnUnmatchedRequests(true)
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    private OicSecurityRealm realm;
+
+    @BeforeEach
+    void setUp(JenkinsRule jenkinsRule) throws Exception {
+        realm = new TestRealm.Builder(wireMock) {
+            @Override
+            public OicServerConfiguration buildServerConfiguration() {
+                OicServerManualConfiguration conf = (OicServerManualConfiguration) super.buildServerConfiguration();
+                conf.setUseRefreshTokens(true);
+                return conf;
+            }
+        }.AddToProperties(List.of(new DisableNonce())).build();
+        Jenkins.get().setSecurityRealm(realm);
+    }
+
+    @Test
+    @Timeout(30)
+    void credentialsAreRefreshedBeforeTheyExpire() throws Exception {
+        stubRefresh("alice");
+        OicCredentials credentials = expiringCredentials(System.currentTimeMillis() + 10_000L);
+        User.getById("alice", true).addProperty(credentials);
+
+        CredentialsRefreshScheduler scheduler = new CredentialsRefreshScheduler(realm, 10, 1);
+        scheduler.schedule("alice", credentials);
+        scheduler.markActive("alice");
+
+        OicCredentials refreshed;
+        while ((refreshed = User.getById("alice", false).getProperty(OicCredentials.class)) == credentials) {
+            Thread.sleep(50);
+        }
+        assertTrue(System.currentTimeMillis() < credentials.getExpiresAtMillis());
+        assertNotSame(credentials, refreshed);
+        assertEquals("new-access", refreshed.getAccessToken());
+        wireMock.verify(1, postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("refresh_token")));
+    }
+
+    @Test
+    @Timeout(30)
+    void failedRefreshesAreLogged() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/token"))
+                .willReturn(aResponse()
+                        .withStatus(400)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"error\":\"invalid_grant\"}")));
+        OicCredentials credentials = expiringCredentials(System.currentTimeMillis() + 10_000L);
+        User.getById("alice", true).addProperty(credentials);
+
+        List<LogRecord> warnings = new CopyOnWriteArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord logRecord) {
+                if (logRecord.getLevel().intValue() >= Level.WARNING.intValue()) {
+                    warnings.add(logRecord);
+                }
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        Logger logger = Logger.getLogger(OicSecurityRealm.class.getName());
+        logger.addHandler(handler);
+        try {
+            CredentialsRefreshScheduler scheduler = new CredentialsRefreshScheduler(realm, 10, 1);
+            scheduler.schedule("alice", credentials);
+            scheduler.markActive("alice");
+            while (warnings.isEmpty()) {
+                Thread.sleep(50);
+            }
+        } finally {
+            logger.removeHandler(handler);
+        }
+        assertTrue(warnings.get(0).getMessage().contains("alice"));
+        assertSame(credentials, User.getById("alice", false).getProperty(OicCredentials.class));
+    }
+
+    @Test
+    void refreshedAuthenticationsAreForgottenWithTheUser() throws Exception {
+        stubRefresh("alice");
+        OicCredentials credentials = expiringCredentials(System.currentTimeMillis() + 10_000L);
+        User user = User.getById("alice", true);
+        user.addProperty(credentials);
+
+        assertTrue(realm.refreshAhead("alice", credentials));
+        assertNotNull(realm.getRefreshedAuthentication("alice"));
+        realm.forgetUser("Alice");
+        assertNull(realm.getRefreshedAuthentication("alice"));
+
+        credentials = user.getProperty(OicCredentials.class);
+        assertTrue(realm.refreshAhead("alice", credentials));
+        assertNotNull(realm.getRefreshedAuthentication("alice"));
+        user.delete();
+        assertNull(realm.getRefreshedAuthentication("alice"));
+    }
+
+    private static void stubRefresh(String subject) {
+        long now = System.currentTimeMillis();
+        String idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                        .subject(subject)
+                        .issuer(TestRealm.ISSUER)
+                        .audience(TestRealm.CLIENT_ID)
+                        .issueTime(new Date(now))
+                        .expirationTime(new Date(now + 3_600_000L))
+                        .build())
+                .serialize();
+        wireMock.stubFor(post(urlPathEqualTo("/token"))
+                .willReturn(okJson("{\"access_token\":\"new-access\",\"token_type\":\"Bearer\",\"expires_in\":3600,"
+                        + "\"refresh_token\":\"new-refresh\",\"id_token\":\"" + idToken + "\"}")));
+    }
+
+    private static OicCredentials expiringCredentials(long expiresAtMillis) {
+        return new OicCredentials(Secret.fromString("access"), null, Secret.fromString("refresh"), expiresAtMillis);
+    }
+}
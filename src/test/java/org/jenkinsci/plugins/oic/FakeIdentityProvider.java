@@ -0,0 +1,210 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stand-in OpenID provider for load tests, which unlike the WireMock stubs of the other tests issues tokens of
+ * their own to each user, and keeps track of the codes and refresh tokens it handed out.
+ * Its token and userinfo endpoints answer after a fixed latency, and fail at a given rate.
+ * The ID tokens are not signed, the realm is expected to have token verification disabled.
+ * The user logging in is given by the {@code login_hint} parameter of the authorization request, which then redirects
+ * straight back to the realm.
+ */
+final class FakeIdentityProvider implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final long latencyMillis;
+
+    private final double failureRate;
+
+    private final long tokenLifetimeSeconds;
+
+    private final Map<String, Authorization> codes = new ConcurrentHashMap<>();
+
+    private final Map<String, String> refreshTokens = new ConcurrentHashMap<>();
+
+    private final Map<String, String> accessTokens = new ConcurrentHashMap<>();
+
+    final LongAdder codeGrants = new LongAdder();
+
+    final LongAdder refreshGrants = new LongAdder();
+
+    final LongAdder userInfoCalls = new LongAdder();
+
+    final LongAdder injectedFailures = new LongAdder();
+
+    /**
+     * @param latencyMillis the time taken by the token and userinfo endpoints to answer.
+     * @param failureRate the share of calls to the token and userinfo endpoints that fail, between 0 and 1.
+     * @param tokenLifetimeSeconds the lifetime of the access tokens issued.
+     */
+    FakeIdentityProvider(long latencyMillis, double failureRate, long tokenLifetimeSeconds) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/authorization", this::authorize);
+        server.createContext("/token", this::token);
+        server.createContext("/userinfo", this::userInfo);
+        server.start();
+    }
+
+    /**
+     * @return the root URL of the provider, ending with a slash.
+     */
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    private void authorize(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parse(exchange.getRequestURI().getRawQuery());
+        String code = UUID.randomUUID().toString();
+        codes.put(code, new Authorization(query.get("login_hint"), query.get("nonce")));
+        String redirectUri = query.get("redirect_uri");
+        String location = redirectUri + (redirectUri.contains("?") ? "&" : "?") + "state="
+                + URLEncoder.encode(query.get("state"), StandardCharsets.UTF_8) + "&code=" + code;
+        exchange.getResponseHeaders().add("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        Map<String, String> form = parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        if (!simulateCall(exchange)) {
+            return;
+        }
+        String userId;
+        String nonce = null;
+        if ("refresh_token".equals(form.get("grant_type"))) {
+            refreshGrants.increment();
+            // refresh tokens are rotated
+            userId = refreshTokens.remove(form.get("refresh_token"));
+        } else {
+            codeGrants.increment();
+            Authorization authorization = codes.remove(form.get("code"));
+            userId = authorization == null ? null : authorization.userId();
+            nonce = authorization == null ? null : authorization.nonce();
+        }
+        if (userId == null) {
+            respond(exchange, 400, "{\"error\":\"invalid_grant\"}");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                        .subject(userId)
+                        .issuer(TestRealm.ISSUER)
+                        .audience(TestRealm.CLIENT_ID)
+                        .issueTime(new Date(now))
+                        .expirationTime(new Date(now + tokenLifetimeSeconds * 1000))
+                        .claim("nonce", nonce)
+                        .claim("groups", groupsOf(userId))
+                        .build())
+                .serialize();
+        String accessToken = UUID.randomUUID().toString();
+        String refreshToken = UUID.randomUUID().toString();
+        accessTokens.put(accessToken, userId);
+        refreshTokens.put(refreshToken, userId);
+        respond(
+                exchange,
+                200,
+                "{\"access_token\":\"" + accessToken + "\",\"token_type\":\"Bearer\",\"expires_in\":"
+                        + tokenLifetimeSeconds + ",\"refresh_token\":\"" + refreshToken + "\",\"id_token\":\""
+                        + idToken + "\"}");
+    }
+
+    private void userInfo(HttpExchange exchange) throws IOException {
+        if (!simulateCall(exchange)) {
+            return;
+        }
+        userInfoCalls.increment();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String userId = authorization == null ? null : accessTokens.get(authorization.replaceFirst("^Bearer ", ""));
+        if (userId == null) {
+            respond(exchange, 401, "{\"error\":\"invalid_token\"}");
+            return;
+        }
+        respond(
+                exchange,
+                200,
+                "{\"sub\":\"" + userId + "\",\"email\":\"" + userId + "@example.com\",\"groups\":[\""
+                        + String.join("\",\"", groupsOf(userId)) + "\"]}");
+    }
+
+    /**
+     * Wait for the latency of the provider, then fail the call at the configured rate.
+     * @return {@code false} if the call failed and has been answered.
+     */
+    private boolean simulateCall(HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            injectedFailures.increment();
+            respond(exchange, 503, "{\"error\":\"temporarily_unavailable\"}");
+            return false;
+        }
+        return true;
+    }
+
+    private static List<String> groupsOf(String userId) {
+        return List.of("users", "team-" + Math.abs(userId.hashCode() % 20));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parse(String encoded) {
+        Map<String, String> parameters = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(
+                    URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private record Authorization(String userId, String nonce) {}
+}
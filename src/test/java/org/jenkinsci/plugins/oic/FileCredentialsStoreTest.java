@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.BulkChange;
+import hudson.model.User;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class FileCredentialsStoreTest {
+
+    @Test
+    @Timeout(30)
+    void credentialsAreWrittenBehindOutsideOfTheUser(JenkinsRule jenkinsRule) throws Exception {
+        User user = User.getById("alice", true);
+        FileCredentialsStore store = new FileCredentialsStore();
+        assertNull(store.load(user, null));
+
+        OicCredentials credentials = new OicCredentials("access", "id", "refresh", 60L, 1000L, 0L);
+        assertFalse(store.store(user, credentials, null));
+        assertSame(credentials, store.load(user, null));
+        assertNull(user.getProperty(OicCredentials.class));
+
+        Path file = jenkinsRule
+                .jenkins
+                .getRootDir()
+                .toPath()
+                .resolve("oic-credentials")
+                .resolve(User.idStrategy().filenameOf("alice"));
+        while (!Files.exists(file)) {
+            Thread.sleep(10);
+        }
+
+        // as after a restart
+        OicCredentials loaded = new FileCredentialsStore().load(user, null);
+        assertNotNull(loaded);
+        assertEquals("access", loaded.getAccessToken());
+        assertEquals("id", loaded.getIdToken());
+        assertEquals("refresh", loaded.getRefreshToken());
+        assertEquals(61000L, loaded.getExpiresAtMillis());
+    }
+
+    @Test
+    void credentialsLeftOnTheUserAreMovedToTheFile(JenkinsRule jenkinsRule) throws Exception {
+        User user = User.getById("bob", true);
+        OicCredentials legacy = new OicCredentials("access", "id", "refresh", 60L, 1000L, 0L);
+        user.addProperty(legacy);
+        FileCredentialsStore store = new FileCredentialsStore();
+        assertSame(legacy, store.load(user, null));
+
+        OicCredentials refreshed = new OicCredentials("new-access", "new-id", "new-refresh", 60L, 2000L, 0L);
+        try (BulkChange bc = new BulkChange(user)) {
+            assertTrue(store.store(user, refreshed, null));
+            bc.commit();
+        }
+
+        // the tokens are gone from the user as soon as it is saved
+        Path users = jenkinsRule.jenkins.getRootDir().toPath().resolve("users");
+        List<Path> configs;
+        try (Stream<Path> files = Files.walk(users)) {
+            configs = files.filter(f -> f.endsWith("config.xml")).toList();
+        }
+        assertFalse(configs.isEmpty());
+        for (Path config : configs) {
+            assertFalse(Files.readString(config).contains("refreshToken"), config.toString());
+        }
+        // and were written to the file straight away rather than behind
+        OicCredentials loaded = new FileCredentialsStore().load(user, null);
+        assertNotNull(loaded);
+        assertEquals("new-refresh", loaded.getRefreshToken());
+        assertEquals(62000L, loaded.getExpiresAtMillis());
+    }
+}
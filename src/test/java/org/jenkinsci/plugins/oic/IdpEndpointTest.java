@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class IdpEndpointTest {
+
+    @Test
+    void timeoutsDefaultToTheRealmOnes() {
+        assertEquals(1234, IdpEndpoint.TOKEN.connectTimeoutMillis(1234));
+        assertEquals(5678, IdpEndpoint.TOKEN.readTimeoutMillis(5678));
+    }
+
+    @Test
+    void permitsAreReleasedOnceACallCompletes() throws IOException {
+        // far more calls than the endpoint allows concurrently
+        for (int i = 0; i < 100; i++) {
+            int expected = i;
+            assertEquals(expected, IdpEndpoint.DISCOVERY.call(() -> expected));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertThrows(IOException.class, () -> IdpEndpoint.DISCOVERY.call(() -> {
+                throw new IOException("failed");
+            }));
+        }
+        assertEquals("done", IdpEndpoint.DISCOVERY.call(() -> "done"));
+    }
+
+    @Test
+    void eachRequestOfAnOperationHoldsAPermitUntilTheNextOne() throws Exception {
+        // far more requests than the endpoint allows concurrently, made one after the other as pac4j does
+        for (int i = 0; i < 10; i++) {
+            assertEquals("done", IdpEndpoint.calls(() -> {
+                for (int j = 0; j < 100; j++) {
+                    IdpEndpoint.DISCOVERY.begin();
+                }
+                return "done";
+            }));
+        }
+        assertThrows(IllegalStateException.class, () -> IdpEndpoint.calls(() -> {
+            IdpEndpoint.DISCOVERY.begin();
+            throw new IllegalStateException("failed");
+        }));
+        assertEquals("done", IdpEndpoint.DISCOVERY.call(() -> "done"));
+    }
+
+    @Test
+    void refusedPermitsAreNotIOExceptions() throws Exception {
+        // hold all the permits of the endpoint
+        CountDownLatch held = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                executor.submit(() -> IdpEndpoint.DISCOVERY.call(() -> {
+                    held.countDown();
+                    return done.await(30, TimeUnit.SECONDS);
+                }));
+            }
+            held.await();
+            assertThrows(IdpEndpoint.BulkheadFullException.class, () -> IdpEndpoint.calls(() -> {
+                IdpEndpoint.DISCOVERY.begin();
+                return "done";
+            }));
+            IOException e = assertThrows(IOException.class, () -> IdpEndpoint.DISCOVERY.call(() -> "done"));
+            assertInstanceOf(IdpEndpoint.BulkheadFullException.class, e.getCause());
+        } finally {
+            done.countDown();
+            executor.shutdown();
+        }
+        assertFalse(IOException.class.isAssignableFrom(IdpEndpoint.BulkheadFullException.class));
+    }
+
+    @Test
+    void requestsMadeOutsideOfAnOperationAreNotBounded() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            IdpEndpoint.DISCOVERY.begin();
+        }
+        assertEquals("done", IdpEndpoint.DISCOVERY.call(() -> "done"));
+    }
+}
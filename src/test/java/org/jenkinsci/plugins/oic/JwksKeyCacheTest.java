@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Resource;
+import java.io.IOException;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class JwksKeyCacheTest {
+
+    @Test
+    void keysAreRetrievedOnceAndRotationIsPickedUp() throws Exception {
+        RSAKey first = new RSAKeyGenerator(2048).keyID("first").generate();
+        RSAKey second = new RSAKeyGenerator(2048).keyID("second").generate();
+        AtomicReference<JWKSet> published = new AtomicReference<>(new JWKSet(first.toPublicJWK()));
+        AtomicInteger retrievals = new AtomicInteger();
+        JwksKeyCache cache = new JwksKeyCache(url -> {
+            retrievals.incrementAndGet();
+            return new Resource(published.get().toString(), "application/json");
+        });
+        URL jwksUrl = new URL("https://localhost/jwks");
+
+        JWSKeySelector<SecurityContext> selector = cache.keySelector(jwksUrl, JWSAlgorithm.RS256);
+        assertEquals(1, selector.selectJWSKeys(header("first"), null).size());
+        assertEquals(1, selector.selectJWSKeys(header("first"), null).size());
+        // another client of the realm shares the same keys
+        assertEquals(
+                1,
+                cache.keySelector(jwksUrl, JWSAlgorithm.RS256)
+                        .selectJWSKeys(header("first"), null)
+                        .size());
+        assertEquals(1, retrievals.get());
+
+        // the provider rotates its keys, the unknown key triggers a single retrieval
+        published.set(new JWKSet(second.toPublicJWK()));
+        assertEquals(1, selector.selectJWSKeys(header("second"), null).size());
+        assertEquals(2, retrievals.get());
+
+        // further unknown keys are rate limited
+        assertTrue(selector.selectJWSKeys(header("unknown"), null).isEmpty());
+        assertTrue(selector.selectJWSKeys(header("first"), null).isEmpty());
+        assertEquals(2, retrievals.get());
+    }
+
+    @Test
+    @Timeout(30)
+    void staleKeysAreServedWhileTheyAreRetrievedAgain() throws Exception {
+        RSAKey first = new RSAKeyGenerator(2048).keyID("first").generate();
+        RSAKey second = new RSAKeyGenerator(2048).keyID("second").generate();
+        AtomicReference<JWKSet> published = new AtomicReference<>(new JWKSet(first.toPublicJWK()));
+        AtomicInteger retrievals = new AtomicInteger();
+        CountDownLatch slowProvider = new CountDownLatch(1);
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+        JwksKeyCache cache = new JwksKeyCache(
+                url -> {
+                    if (retrievals.incrementAndGet() > 1) {
+                        try {
+                            slowProvider.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    return new Resource(published.get().toString(), "application/json");
+                },
+                new Clock() {
+                    @Override
+                    public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(ZoneId zone) {
+                        return this;
+                    }
+
+                    @Override
+                    public Instant instant() {
+                        return now.get();
+                    }
+                });
+        JWSKeySelector<SecurityContext> selector =
+                cache.keySelector(new URL("https://localhost/jwks"), JWSAlgorithm.RS256);
+        assertEquals(1, selector.selectJWSKeys(header("first"), null).size());
+
+        // once expired, the keys are still served while the provider takes its time to publish the new ones
+        published.set(new JWKSet(List.of(first.toPublicJWK(), second.toPublicJWK())));
+        now.set(now.get().plus(Duration.ofHours(1)));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, selector.selectJWSKeys(header("first"), null).size());
+        }
+        while (retrievals.get() < 2) {
+            Thread.sleep(10);
+        }
+        slowProvider.countDown();
+
+        // the new key comes from that same retrieval
+        assertEquals(1, selector.selectJWSKeys(header("second"), null).size());
+        assertEquals(2, retrievals.get());
+    }
+
+    @Test
+    void otherAlgorithmsAreNotSelected() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key").generate();
+        JwksKeyCache cache =
+                new JwksKeyCache(url -> new Resource(new JWKSet(key.toPublicJWK()).toString(), "application/json"));
+
+        JWSKeySelector<SecurityContext> selector =
+                cache.keySelector(new URL("https://localhost/jwks"), JWSAlgorithm.RS512);
+        assertTrue(selector.selectJWSKeys(header("key"), null).isEmpty());
+    }
+
+    private static JWSHeader header(String keyId) {
+        return new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(keyId).build();
+    }
+}
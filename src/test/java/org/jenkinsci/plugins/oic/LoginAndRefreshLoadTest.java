@@ -0,0 +1,343 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import org.jenkinsci.plugins.oic.properties.AllowedTokenExpirationClockSkew;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Drives many simulated users through the login flow, then through rounds of requests made once their credentials
+ * expired, against a {@link FakeIdentityProvider}, to find out how many concurrent logins and refreshes a controller
+ * sustains.
+ * It reports the latency and throughput of each phase, how busy the request threads and the calls to the provider
+ * got, and how many times the {@code config.xml} of users was written.
+ * It only runs with {@code mvn test -Dtest=LoginAndRefreshLoadTest -Doic.loadTest=true}, and is tuned with the
+ * following system properties:
+ * <ul>
+ *     <li>{@code oic.loadTest.users}: the number of simulated users, 1000 by default.</li>
+ *     <li>{@code oic.loadTest.concurrency}: the number of users active at the same time, 32 by default.</li>
+ *     <li>{@code oic.loadTest.refreshRounds}: the number of times each user comes back after their credentials
+ *     expired, 3 by default.</li>
+ *     <li>{@code oic.loadTest.idpLatencyMillis}: the time taken by the token and userinfo endpoints, 50 by default.
+ *     </li>
+ *     <li>{@code oic.loadTest.idpFailureRate}: the share of calls to these endpoints that fail, 0 by default.</li>
+ *     <li>{@code oic.loadTest.tokenLifetimeSeconds}: the lifetime of the tokens issued, 5 by default.</li>
+ * </ul>
+ */
+@WithJenkins
+@EnabledIfSystemProperty(named = "oic.loadTest", matches = "true")
+class LoginAndRefreshLoadTest {
+
+    private static final int USERS = Integer.getInteger("oic.loadTest.users", 1000);
+
+    private static final int CONCURRENCY = Integer.getInteger("oic.loadTest.concurrency", 32);
+
+    private static final int REFRESH_ROUNDS = Integer.getInteger("oic.loadTest.refreshRounds", 3);
+
+    private static final int IDP_LATENCY_MILLIS = Integer.getInteger("oic.loadTest.idpLatencyMillis", 50);
+
+    private static final double IDP_FAILURE_RATE =
+            Double.parseDouble(System.getProperty("oic.loadTest.idpFailureRate", "0"));
+
+    private static final int TOKEN_LIFETIME_SECONDS = Integer.getInteger("oic.loadTest.tokenLifetimeSeconds", 5);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    @Test
+    void loginAndRefreshStorms(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeIdentityProvider idp =
+                new FakeIdentityProvider(IDP_LATENCY_MILLIS, IDP_FAILURE_RATE, TOKEN_LIFETIME_SECONDS)) {
+            TestRealm realm = new TestRealm.Builder(idp.getUrl()) {
+                @Override
+                public OicServerConfiguration buildServerConfiguration() {
+                    OicServerManualConfiguration conf = (OicServerManualConfiguration) super.buildServerConfiguration();
+                    conf.setUseRefreshTokens(true);
+                    return conf;
+                }
+            }.WithUserInfoServerUrl(idp.getUrl() + "userinfo")
+                    .WithEmailFieldName("email")
+                    .WithGroupsFieldName("groups")
+                    .AddToProperties(List.of(new AllowedTokenExpirationClockSkew(0)))
+                    .build();
+            jenkinsRule.jenkins.setSecurityRealm(realm);
+            OicMetrics.register();
+            String jenkinsUrl = jenkinsRule.getURL().toString();
+
+            List<SimulatedUser> users = new ArrayList<>();
+            for (int i = 0; i < USERS; i++) {
+                users.add(new SimulatedUser("user-" + i));
+            }
+
+            Phase login = run("login", users, user -> user.login(jenkinsUrl));
+            assertEquals(USERS, login.succeeded() + login.failed());
+            if (IDP_FAILURE_RATE == 0) {
+                assertEquals(USERS, login.succeeded(), "All users should have logged in");
+            }
+            System.out.println(login.report());
+            System.out.println("  code grants: " + idp.codeGrants.sum() + ", userinfo calls: "
+                    + idp.userInfoCalls.sum() + ", injected failures: " + idp.injectedFailures.sum());
+
+            List<SimulatedUser> loggedIn = users.stream().filter(user -> user.loggedIn).toList();
+            long lastRefreshGrants = 0;
+            for (int round = 1; round <= REFRESH_ROUNDS; round++) {
+                // wait for the credentials of every user to expire
+                Thread.sleep(TimeUnit.SECONDS.toMillis(TOKEN_LIFETIME_SECONDS) + 500);
+                Phase refresh = run("refresh round " + round, loggedIn, user -> user.browse(jenkinsUrl));
+                System.out.println(refresh.report());
+                long refreshGrants = idp.refreshGrants.sum();
+                System.out.println("  refresh grants: " + (refreshGrants - lastRefreshGrants) + ", injected failures: "
+                        + idp.injectedFailures.sum());
+                if (IDP_FAILURE_RATE == 0) {
+                    assertEquals(loggedIn.size(), refresh.succeeded(), "All users should have been refreshed");
+                    // each user refreshed their credentials exactly once
+                    assertEquals(loggedIn.size(), refreshGrants - lastRefreshGrants);
+                }
+                lastRefreshGrants = refreshGrants;
+            }
+        }
+    }
+
+    /**
+     * Run an action for each user with the configured concurrency, sampling the load on the controller meanwhile.
+     */
+    private static Phase run(String name, List<SimulatedUser> users, UserAction action) throws Exception {
+        Sampler sampler = new Sampler();
+        ConfigXmlWrites.COUNT.set(0);
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        long[] latencies = new long[users.size()];
+        LongAdder failed = new LongAdder();
+        long start = System.nanoTime();
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < users.size(); i++) {
+                int index = i;
+                tasks.add(() -> {
+                    long begin = System.nanoTime();
+                    try {
+                        if (!action.run(users.get(index))) {
+                            failed.increment();
+                        }
+                    } catch (Exception e) {
+                        failed.increment();
+                    }
+                    latencies[index] = System.nanoTime() - begin;
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+            sampler.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new Phase(
+                name,
+                users.size() - (int) failed.sum(),
+                (int) failed.sum(),
+                elapsed,
+                latencies,
+                sampler.peakRequestThreads.get(),
+                sampler.peakInFlight,
+                ConfigXmlWrites.COUNT.get());
+    }
+
+    @FunctionalInterface
+    private interface UserAction {
+        /**
+         * @return {@code false} if the user did not get what they were after.
+         */
+        boolean run(SimulatedUser user) throws Exception;
+    }
+
+    /**
+     * A user with their own session, going through the realm as a browser would.
+     */
+    private final class SimulatedUser {
+
+        private final String id;
+
+        private final Map<String, String> cookies = new ConcurrentHashMap<>();
+
+        private volatile boolean loggedIn;
+
+        SimulatedUser(String id) {
+            this.id = id;
+        }
+
+        boolean login(String jenkinsUrl) throws Exception {
+            HttpResponse<String> commence = get(jenkinsUrl + "securityRealm/commenceLogin?from=%2F", true);
+            // the user authenticates with the provider, which sends them back to the realm
+            HttpResponse<String> authorize = get(location(commence) + "&login_hint=" + id, false);
+            HttpResponse<String> finish = get(location(authorize), true);
+            loggedIn = finish.statusCode() == 302 && isAuthenticated(jenkinsUrl);
+            return loggedIn;
+        }
+
+        /**
+         * Browse Jenkins, which refreshes the credentials of the user if they expired.
+         */
+        boolean browse(String jenkinsUrl) throws Exception {
+            return isAuthenticated(jenkinsUrl);
+        }
+
+        private boolean isAuthenticated(String jenkinsUrl) throws Exception {
+            HttpResponse<String> whoAmI = get(jenkinsUrl + "whoAmI/api/json", true);
+            return whoAmI.statusCode() == 200 && whoAmI.body().contains("\"name\":\"" + id + "\"");
+        }
+
+        private HttpResponse<String> get(String url, boolean toJenkins) throws Exception {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).GET();
+            if (toJenkins && !cookies.isEmpty()) {
+                request.header("Cookie", String.join("; ", cookies.values()));
+            }
+            HttpResponse<String> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            if (toJenkins) {
+                for (String cookie : response.headers().allValues("Set-Cookie")) {
+                    String nameValue = cookie.split(";", 2)[0];
+                    cookies.put(nameValue.substring(0, nameValue.indexOf('=')), nameValue);
+                }
+            }
+            return response;
+        }
+
+    }
+
+    private static String location(HttpResponse<?> response) {
+        return response.headers()
+                .firstValue("Location")
+                .orElseThrow(() -> new IllegalStateException("Expected a redirect, got " + response.statusCode()));
+    }
+
+    /**
+     * Samples the number of threads serving requests and the number of operations of the realm in flight.
+     */
+    private static final class Sampler implements AutoCloseable {
+
+        /**
+         * The operations of {@link OicMetrics} that hold on to a request thread.
+         */
+        private static final List<String> OPERATIONS =
+                List.of("finishLogin", "token", "userInfo", "refreshToken", "userSave");
+
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        private final AtomicInteger peakRequestThreads = new AtomicInteger();
+
+        private final Map<String, Integer> peakInFlight = new ConcurrentHashMap<>();
+
+        private final Map<String, OicMetrics.OperationMXBean> operations = new ConcurrentHashMap<>();
+
+        Sampler() throws Exception {
+            for (String name : OPERATIONS) {
+                operations.put(
+                        name,
+                        JMX.newMXBeanProxy(
+                                ManagementFactory.getPlatformMBeanServer(),
+                                new ObjectName("org.jenkinsci.plugins.oic:type=Operation,name=" + name),
+                                OicMetrics.OperationMXBean.class));
+            }
+            executor.scheduleAtFixedRate(this::sample, 0, 20, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            // the threads of the Jetty pool serving the requests of the simulated users
+            int requestThreads = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("qtp") && thread.getState() != Thread.State.TIMED_WAITING) {
+                    requestThreads++;
+                }
+            }
+            peakRequestThreads.accumulateAndGet(requestThreads, Math::max);
+            operations.forEach((name, operation) -> peakInFlight.merge(name, operation.getInFlight(), Math::max));
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+
+    private record Phase(
+            String name,
+            int succeeded,
+            int failed,
+            long elapsedNanos,
+            long[] sortedLatencyNanos,
+            int peakRequestThreads,
+            Map<String, Integer> peakInFlight,
+            int configXmlWrites) {
+
+        String report() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format(
+                    "%s: %d succeeded, %d failed in %.1f s (%.1f/s), latency p50 %d ms, p99 %d ms, max %d ms,"
+                            + " peak busy request threads %d, peak in flight %s, user config.xml writes %d",
+                    name,
+                    succeeded,
+                    failed,
+                    seconds,
+                    (succeeded + failed) / seconds,
+                    percentileMillis(50),
+                    percentileMillis(99),
+                    percentileMillis(100),
+                    peakRequestThreads,
+                    peakInFlight,
+                    configXmlWrites);
+        }
+
+        private long percentileMillis(int percent) {
+            if (sortedLatencyNanos.length == 0) {
+                return 0;
+            }
+            int rank = Math.max(1, (int) Math.ceil(sortedLatencyNanos.length * percent / 100.0));
+            return TimeUnit.NANOSECONDS.toMillis(sortedLatencyNanos[rank - 1]);
+        }
+    }
+
+    @TestExtension
+    public static class ConfigXmlWrites extends SaveableListener {
+
+        static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof User) {
+                COUNT.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.text.ParseException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pac4j.core.exception.TechnicalException;
+
+class OicMetricsTest {
+
+    @Test
+    void failuresAreReportedByCause() {
+        assertEquals(
+                "invalid_grant", OicMetrics.causeOf(new TechnicalException("Bad token response, error=invalid_grant")));
+        assertEquals(
+                "timeout", OicMetrics.causeOf(new TechnicalException(new SocketTimeoutException("Read timed out"))));
+        assertEquals("parse_error", OicMetrics.causeOf(new TechnicalException(new ParseException("Invalid", 0))));
+        assertEquals("circuit_open", OicMetrics.causeOf(new CircuitBreaker.OpenException("token")));
+        assertEquals("bulkhead_full", OicMetrics.causeOf(new IdpEndpoint.BulkheadFullException(IdpEndpoint.TOKEN)));
+        assertEquals("io_error", OicMetrics.causeOf(new IOException("Connection refused")));
+        assertEquals("error", OicMetrics.causeOf(new IllegalStateException()));
+    }
+
+    @Test
+    void operationsArePublishedOverJmx() throws Exception {
+        OicMetrics.register();
+        OicMetrics.OperationMXBean commenceLogin = JMX.newMXBeanProxy(
+                ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName("org.jenkinsci.plugins.oic:type=Operation,name=commenceLogin"),
+                OicMetrics.OperationMXBean.class);
+        long successes = commenceLogin.getSuccesses();
+        long failures = commenceLogin.getFailuresByCause().getOrDefault("timeout", 0L);
+
+        try (OicMetrics.Sample sample = OicMetrics.Operation.COMMENCE_LOGIN.start()) {
+            assertEquals(1, commenceLogin.getInFlight());
+            sample.succeeded();
+        }
+        try (OicMetrics.Sample sample = OicMetrics.Operation.COMMENCE_LOGIN.start()) {
+            sample.failed(new SocketTimeoutException());
+        }
+
+        assertEquals(0, commenceLogin.getInFlight());
+        assertEquals(successes + 1, commenceLogin.getSuccesses());
+        Map<String, Long> byCause = commenceLogin.getFailuresByCause();
+        assertEquals(failures + 1, byCause.get("timeout"));
+        assertEquals(commenceLogin.getCount(), commenceLogin.getLatencyHistogram().get("le_inf"));
+    }
+
+    @Test
+    void operationsAreTracedWithFlightRecorder(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("oic.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.jenkinsci.plugins.oic.Operation");
+            recording.start();
+            try (OicMetrics.Sample sample = OicMetrics.Operation.TOKEN.start()) {
+                sample.user("alice");
+                sample.failed("invalid_grant");
+            }
+            try (OicMetrics.Sample sample = OicMetrics.Operation.TOKEN_EXPIRATION_CHECK.start()) {
+                sample.succeeded();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("token", event.getString("operation"));
+        assertEquals("token", event.getString("endpoint"));
+        assertEquals("invalid_grant", event.getString("outcome"));
+        assertEquals(OicMetrics.hash("alice"), event.getString("userIdHash"));
+        assertEquals(16, OicMetrics.hash("alice").length());
+        // keyed, so that it cannot be matched against the hashes of candidate user names
+        byte[] unkeyed = MessageDigest.getInstance("SHA-256").digest("alice".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(HexFormat.of().formatHex(unkeyed, 0, 8), OicMetrics.hash("alice"));
+        assertNull(OicMetrics.hash(null));
+        Files.delete(file);
+    }
+}
@@ -8,6 +8,8 @@ import static org.hamcrest.Matchers.startsWith;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
@@ -17,6 +19,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.stream.Stream;
 import org.htmlunit.Page;
+import org.jenkinsci.plugins.oic.properties.DisableTokenVerification;
+import org.jenkinsci.plugins.oic.properties.Pkce;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -24,6 +28,7 @@ import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.JenkinsRule.WebClient;
 import org.jvnet.hudson.test.WithoutJenkins;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.pac4j.oidc.client.OidcClient;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -85,6 +90,18 @@ class OicSecurityRealmTest {
         assertEquals("none", Secret.toString(realm.getClientSecret()));
     }
 
+    @Test
+    void testOidcClientIsReusedUntilConfigurationChanges(JenkinsRule jenkinsRule) throws Exception {
+        TestRealm realm = new TestRealm.Builder(wireMock).WithMinimalDefaults().build();
+        OidcClient client = realm.getOidcClient();
+        assertSame(client, realm.getOidcClient());
+
+        realm.setProperties(List.of(new DisableTokenVerification(), new Pkce()));
+        OidcClient rebuilt = realm.getOidcClient();
+        assertNotSame(client, rebuilt);
+        assertSame(rebuilt, realm.getOidcClient());
+    }
+
     @Test
     void testGetValidRedirectUrl(JenkinsRule jenkinsRule) throws Exception {
         // root url is http://localhost:????/jenkins/
@@ -1,25 +1,61 @@
 package org.jenkinsci.plugins.oic;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.proc.BadJWTException;
 import hudson.model.User;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.SecurityRealm;
+import hudson.util.Secret;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import jenkins.model.Jenkins;
 import jenkins.security.ApiTokenProperty;
+import org.jenkinsci.plugins.oic.properties.DisableNonce;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.mockito.MockedStatic;
+import org.pac4j.core.exception.TechnicalException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 @WithJenkins
 public class OicSecurityRealmTokenExpirationTest {
@@ -110,4 +146,207 @@ public class OicSecurityRealmTokenExpirationTest {
             assertTrue(realm.handleTokenExpiration(mockHttpServletRequest, null));
         }
     }
+
+    @Test
+    @Timeout(60)
+    void concurrentExpiredRequestsShareOneRefresh() throws Exception {
+        long now = System.currentTimeMillis();
+        String idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                        .subject("alice")
+                        .issuer(TestRealm.ISSUER)
+                        .audience(TestRealm.CLIENT_ID)
+                        .issueTime(new Date(now))
+                        .expirationTime(new Date(now + 3_600_000L))
+                        .build())
+                .serialize();
+        // slow enough for all the requests to arrive while the refresh is in progress
+        wireMock.stubFor(post(urlPathEqualTo("/token"))
+                .willReturn(okJson("{\"access_token\":\"new-access\",\"token_type\":\"Bearer\",\"expires_in\":3600,"
+                                + "\"refresh_token\":\"new-refresh\",\"id_token\":\"" + idToken + "\"}")
+                        .withFixedDelay(1_000)));
+        OicSecurityRealm realm = refreshingRealm();
+        jenkins.setSecurityRealm(realm);
+        User.getById("alice", true).addProperty(expiredCredentials());
+
+        List<RefreshOutcome> outcomes = handleConcurrently(realm, 8);
+
+        wireMock.verify(1, postRequestedFor(urlPathEqualTo("/token")));
+        OicCredentials refreshed = User.getById("alice", false).getProperty(OicCredentials.class);
+        assertEquals("new-access", refreshed.getAccessToken());
+        Authentication authentication = outcomes.get(0).authentication();
+        for (RefreshOutcome outcome : outcomes) {
+            assertTrue(outcome.proceed());
+            assertSame(authentication, outcome.authentication());
+            verify(outcome.response(), never()).sendRedirect(any());
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void requestsWaitingForAFailedRefreshGetTheSameAnswer() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/token"))
+                .willReturn(aResponse()
+                        .withStatus(400)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"error\":\"invalid_grant\"}")
+                        .withFixedDelay(1_000)));
+        OicSecurityRealm realm = refreshingRealm();
+        jenkins.setSecurityRealm(realm);
+        User.getById("alice", true).addProperty(expiredCredentials());
+
+        List<RefreshOutcome> outcomes = handleConcurrently(realm, 8);
+
+        wireMock.verify(1, postRequestedFor(urlPathEqualTo("/token")));
+        for (RefreshOutcome outcome : outcomes) {
+            assertFalse(outcome.proceed());
+            verify(outcome.response()).sendRedirect(realm.getLoginUrl());
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void failedRefreshesAreNotReused() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/token")).willReturn(aResponse().withStatus(503)));
+        OicSecurityRealm realm = refreshingRealm();
+        jenkins.setSecurityRealm(realm);
+        User.getById("alice", true).addProperty(expiredCredentials());
+
+        for (int i = 0; i < 2; i++) {
+            RefreshOutcome outcome = handleConcurrently(realm, 1).get(0);
+            assertFalse(outcome.proceed());
+            verify(outcome.response()).sendError(eq(HttpServletResponse.SC_UNAUTHORIZED), any());
+        }
+
+        // the same expired credentials are refreshed again after a failure, which may have been transient
+        wireMock.verify(2, postRequestedFor(urlPathEqualTo("/token")));
+    }
+
+    @Test
+    @Timeout(60)
+    void rejectedIdTokensDoNotOpenTheCircuit() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/token"))
+                .willReturn(okJson("{\"access_token\":\"new-access\",\"token_type\":\"Bearer\",\"expires_in\":3600,"
+                        + "\"refresh_token\":\"new-refresh\",\"id_token\":\"not-an-id-token\"}")));
+        OicSecurityRealm realm = refreshingRealm();
+        jenkins.setSecurityRealm(realm);
+
+        // more refreshes than it takes failures to open the circuit
+        for (int i = 0; i < 10; i++) {
+            User.getById("alice", true).addProperty(expiredCredentials());
+            assertFalse(handleConcurrently(realm, 1).get(0).proceed());
+        }
+
+        wireMock.verify(10, postRequestedFor(urlPathEqualTo("/token")));
+        assertEquals(CircuitBreaker.State.CLOSED, realm.getTokenEndpointCircuitBreaker().getState());
+        assertEquals(0, realm.getTokenEndpointCircuitBreaker().getConsecutiveFailures());
+    }
+
+    @Test
+    void onlyTransportFailuresAndFailingAnswersCountAgainstTheTokenEndpoint() {
+        assertEquals(
+                CircuitBreaker.Outcome.FAILURE,
+                OicSecurityRealm.tokenEndpointOutcomeOf(new TechnicalException(new ConnectException("refused"))));
+        assertEquals(
+                CircuitBreaker.Outcome.FAILURE,
+                OicSecurityRealm.tokenEndpointOutcomeOf(new TechnicalException("Bad token response, error=null")));
+        assertEquals(
+                CircuitBreaker.Outcome.FAILURE,
+                OicSecurityRealm.tokenEndpointOutcomeOf(
+                        new TechnicalException("Bad token response, error=temporarily_unavailable")));
+        assertEquals(
+                CircuitBreaker.Outcome.SUCCESS,
+                OicSecurityRealm.tokenEndpointOutcomeOf(
+                        new TechnicalException("Bad token response, error=invalid_grant")));
+        assertEquals(
+                CircuitBreaker.Outcome.IGNORED,
+                OicSecurityRealm.tokenEndpointOutcomeOf(new TechnicalException(
+                        new KeySourceException("no keys", new SocketTimeoutException("timed out")))));
+        assertEquals(
+                CircuitBreaker.Outcome.IGNORED,
+                OicSecurityRealm.tokenEndpointOutcomeOf(new TechnicalException(new BadJWTException("bad nonce"))));
+        assertEquals(
+                CircuitBreaker.Outcome.IGNORED,
+                OicSecurityRealm.tokenEndpointOutcomeOf(new IdpEndpoint.BulkheadFullException(IdpEndpoint.TOKEN)));
+    }
+
+    private OicSecurityRealm refreshingRealm() throws Exception {
+        return new TestRealm.Builder(wireMock) {
+            @Override
+            public OicServerConfiguration buildServerConfiguration() {
+                OicServerManualConfiguration conf = (OicServerManualConfiguration) super.buildServerConfiguration();
+                conf.setUseRefreshTokens(true);
+                return conf;
+            }
+        }.AddToProperties(List.of(new DisableNonce())).build();
+    }
+
+    private static OicCredentials expiredCredentials() {
+        return new OicCredentials(
+                Secret.fromString("access"),
+                null,
+                Secret.fromString("refresh"),
+                System.currentTimeMillis() - 3_600_000L);
+    }
+
+    /**
+     * Make concurrent requests of a user whose credentials expired.
+     */
+    private static List<RefreshOutcome> handleConcurrently(OicSecurityRealm realm, int requests) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<RefreshOutcome>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(executor.submit(() -> {
+                    HttpServletRequest request = mock(HttpServletRequest.class);
+                    when(request.getRequestURI()).thenReturn("/job/example/");
+                    when(request.getContextPath()).thenReturn("");
+                    when(request.getSession()).thenReturn(mock(HttpSession.class));
+                    HttpServletResponse response = mock(HttpServletResponse.class);
+                    Authentication authentication = new UsernamePasswordAuthenticationToken(
+                            "alice", "", List.of(SecurityRealm.AUTHENTICATED_AUTHORITY2));
+                    start.await();
+                    try (ACLContext ignored = ACL.as2(authentication)) {
+                        boolean proceed = realm.handleTokenExpiration(request, response);
+                        return new RefreshOutcome(
+                                proceed, SecurityContextHolder.getContext().getAuthentication(), response);
+                    }
+                }));
+            }
+            start.countDown();
+            List<RefreshOutcome> outcomes = new ArrayList<>();
+            for (Future<RefreshOutcome> future : futures) {
+                outcomes.add(future.get());
+            }
+            return outcomes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private record RefreshOutcome(boolean proceed, Authentication authentication, HttpServletResponse response) {}
+
+    @Test
+    void isStaticResourceRequest() throws Exception {
+        final TestRealm realm = new TestRealm.Builder(wireMock).build();
+
+        assertTrue(realm.isStaticResourceRequest(request("/jenkins", "/jenkins/static/abcd/css/style.css")));
+        assertTrue(realm.isStaticResourceRequest(request("", "/adjuncts/abcd/lib/form.js")));
+        assertFalse(realm.isStaticResourceRequest(request("", "/job/static/")));
+        assertFalse(realm.isStaticResourceRequest(request("/jenkins", "/jenkins/manage/")));
+    }
+
+    private static MockHttpServletRequest request(String contextPath, String requestURI) {
+        return new MockHttpServletRequest() {
+            @Override
+            public String getContextPath() {
+                return contextPath;
+            }
+
+            @Override
+            public String getRequestURI() {
+                return requestURI;
+            }
+        };
+    }
 }
@@ -5,7 +5,11 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.jvnet.hudson.test.JenkinsMatchers.hasKind;
@@ -111,12 +115,28 @@ class OicServerManualConfigurationTest {
             OIDCProviderMetadata data = config.toProviderMetadata();
             assertFalse(data.getIDTokenJWSAlgs().contains(arbitraryEdAlgorithm));
 
+            // the FIPS mode does not change during the life of the JVM, so it is only checked when building metadata
             fips140Mock.when(FIPS140::useCompliantAlgorithms).thenReturn(false);
-            data = config.toProviderMetadata();
+            data = new OicServerManualConfiguration("issuer", "t-url", "a-url").toProviderMetadata();
             assertTrue(data.getIDTokenJWSAlgs().contains(arbitraryEdAlgorithm));
         }
     }
 
+    @Test
+    @WithoutJenkins
+    void providerMetadataIsBuiltOncePerChange() throws Descriptor.FormException {
+        OicServerManualConfiguration config = new OicServerManualConfiguration("issuer", "t-url", "a-url");
+        OIDCProviderMetadata data = config.toProviderMetadata();
+        assertSame(data, config.toProviderMetadata());
+        assertNull(data.getUserInfoEndpointURI());
+
+        config.setUserInfoServerUrl("http://localhost/userinfo");
+        OIDCProviderMetadata changed = config.toProviderMetadata();
+        assertNotSame(data, changed);
+        assertEquals("http://localhost/userinfo", changed.getUserInfoEndpointURI().toString());
+        assertSame(changed, config.toProviderMetadata());
+    }
+
     @Test
     @WithoutJenkins
     public void testProviderMetadataWithInvalidURI() throws Descriptor.FormException, URISyntaxException {
@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.oic;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -9,14 +10,18 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.jvnet.hudson.test.JenkinsMatchers.hasKind;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import hudson.Util;
 import hudson.util.FormValidation;
 import org.hamcrest.Matcher;
 import org.jenkinsci.plugins.oic.OicServerWellKnownConfiguration.DescriptorImpl;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -32,7 +37,7 @@ class OicServerWellKnownConfigurationTest {
 
     @Test
     void doCheckWellKnownOpenIDConfigurationUrl(JenkinsRule jenkinsRule) {
-        configureWireMockWellKnownEndpoint(jenkinsRule);
+        configureWireMockWellKnownEndpoint("/.well-known/openid-configuration");
         DescriptorImpl descriptor = getDescriptor(jenkinsRule);
 
         assertThat(
@@ -94,7 +99,41 @@ class OicServerWellKnownConfigurationTest {
                         withMessage("Are you sure you don't want to include 'openid' as a scope?")));
     }
 
-    private void configureWireMockWellKnownEndpoint(JenkinsRule jenkinsRule) {
+    @Test
+    void providerMetadataIsServedFromMemoryOnceDownloaded(JenkinsRule jenkinsRule) throws Exception {
+        configureWireMockWellKnownEndpoint("/well.known");
+        TestRealm realm = new TestRealm.Builder(wireMock).WithAutomanualconfigure(true).build();
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+
+        OIDCProviderMetadata metadata = realm.getServerConfiguration().toProviderMetadata();
+        assertSame(metadata, realm.getServerConfiguration().toProviderMetadata());
+        assertSame(metadata, realm.getServerConfiguration().toProviderMetadata());
+        wireMock.verify(1, getRequestedFor(urlPathEqualTo("/well.known")));
+    }
+
+    @Test
+    @Timeout(30)
+    void providerMetadataIsServedFromSnapshotWhenProviderIsDown(JenkinsRule jenkinsRule) throws Exception {
+        configureWireMockWellKnownEndpoint("/well.known");
+        TestRealm realm = new TestRealm.Builder(wireMock).WithAutomanualconfigure(true).build();
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        OIDCProviderMetadata metadata = realm.getServerConfiguration().toProviderMetadata();
+
+        // simulate a restart while the provider is down
+        wireMock.stubFor(get(urlPathEqualTo("/well.known")).willReturn(aResponse().withStatus(503)));
+        TestRealm restarted = new TestRealm.Builder(wireMock).WithAutomanualconfigure(true).build();
+        jenkinsRule.jenkins.setSecurityRealm(restarted);
+
+        OIDCProviderMetadata snapshot = restarted.getServerConfiguration().toProviderMetadata();
+        assertEquals(metadata.getAuthorizationEndpointURI(), snapshot.getAuthorizationEndpointURI());
+        assertEquals(metadata.getTokenEndpointURI(), snapshot.getTokenEndpointURI());
+        // the snapshot is revalidated in the background
+        while (wireMock.findAll(getRequestedFor(urlPathEqualTo("/well.known"))).size() < 2) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void configureWireMockWellKnownEndpoint(String path) {
         String authUrl = "http://localhost:" + wireMock.getPort() + "/authorization";
         String tokenUrl = "http://localhost:" + wireMock.getPort() + "/token";
         String userInfoUrl = "http://localhost:" + wireMock.getPort() + "/userinfo";
@@ -102,7 +141,7 @@ class OicServerWellKnownConfigurationTest {
         String jwksUrl = "null";
         String endSessionUrl = "null";
 
-        wireMock.stubFor(get(urlPathEqualTo("/.well-known/openid-configuration"))
+        wireMock.stubFor(get(urlPathEqualTo(path))
                 .willReturn(aResponse()
                         .withHeader("Content-Type", "text/html; charset=utf-8")
                         .withBody(String.format(
@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.oic;
+
+import io.burt.jmespath.Expression;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.pac4j.oidc.client.OidcClient;
+
+/**
+ * Building the pac4j client and compiling the JMESPath expressions of the claims, which happen whenever the
+ * configuration of the realm or the metadata of the provider changes.
+ */
+@JmhBenchmark
+public class OidcClientBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        OicSecurityRealm realm;
+
+        @Override
+        public void setup() throws Exception {
+            realm = new TestRealm.Builder("http://localhost/")
+                    .WithEmailFieldName("email")
+                            .WithGroupsFieldName("groups")
+                            .build();
+            Jenkins.get().setSecurityRealm(realm);
+        }
+    }
+
+    @Benchmark
+    public OidcClient buildOidcClient(JenkinsState state) {
+        return state.realm.buildOidcClient();
+    }
+
+    @Benchmark
+    public Expression<Object> compileDottedPath() {
+        return OicSecurityRealm.compileJMESPath("profile.name", null);
+    }
+
+    @Benchmark
+    public Expression<Object> compileFilterExpression() {
+        return OicSecurityRealm.compileJMESPath("groups[?starts_with(@, 'team-')]", null);
+    }
+}
@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class OutageGracePeriodsTest {
+
+    @Test
+    @Timeout(30)
+    void sessionsAreKeptUntilTheCredentialsAreRefreshed(JenkinsRule jenkinsRule) throws Exception {
+        long now = System.currentTimeMillis();
+        OicCredentials credentials = new OicCredentials("access", "id", "refresh", 60L, now - 120_000L, 0L);
+        OicSecurityRealm realm = mock(OicSecurityRealm.class);
+        // the provider is unreachable for the first retry
+        when(realm.refreshAhead("alice", credentials)).thenReturn(false, true);
+        OutageGracePeriods gracePeriods = new OutageGracePeriods(realm, 300_000L, 10L);
+
+        assertFalse(gracePeriods.isInGracePeriod("alice", credentials, now));
+        assertTrue(gracePeriods.start("alice", credentials, now));
+        assertTrue(gracePeriods.isInGracePeriod("alice", credentials, now));
+        assertFalse(gracePeriods.isInGracePeriod("alice", credentials, credentials.getExpiresAtMillis() + 300_000L));
+
+        while (gracePeriods.isInGracePeriod("alice", credentials, now)) {
+            Thread.sleep(10);
+        }
+        verify(realm, times(2)).refreshAhead("alice", credentials);
+    }
+
+    @Test
+    void credentialsExpiredForTooLongAreNotKept(JenkinsRule jenkinsRule) {
+        long now = System.currentTimeMillis();
+        OicCredentials credentials = new OicCredentials("access", "id", "refresh", 60L, now - 600_000L, 0L);
+        OutageGracePeriods gracePeriods = new OutageGracePeriods(mock(OicSecurityRealm.class), 300_000L, 10L);
+
+        assertFalse(gracePeriods.start("alice", credentials, now));
+        assertFalse(gracePeriods.isInGracePeriod("alice", credentials, now));
+    }
+}
@@ -42,6 +42,7 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.User;
+import hudson.security.UserMayOrMayNotExistException2;
 import hudson.tasks.Mailer;
 import hudson.tasks.UserAvatarResolver;
 import hudson.util.VersionNumber;
@@ -66,6 +67,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -73,6 +75,7 @@ import javax.net.ssl.SSLException;
 import jenkins.model.Jenkins;
 import jenkins.security.ApiTokenProperty;
 import jenkins.security.LastGrantedAuthoritiesProperty;
+import jenkins.security.SecurityListener;
 import org.htmlunit.CookieManager;
 import org.htmlunit.html.HtmlPage;
 import org.htmlunit.util.Cookie;
@@ -85,10 +88,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.Url;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.kohsuke.stapler.Stapler;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.xml.sax.SAXException;
 
@@ -150,6 +155,22 @@ class PluginTest {
         });
     }
 
+    @Test
+    void testAuthoritiesAreReportedOutsideOfLogin() throws Exception {
+        mockAuthorizationRedirectsToFinishLogin();
+        mockTokenReturnsIdTokenWithGroup();
+        configureTestRealm(sc -> {});
+        browseLoginPage();
+
+        var userDetails = jenkins.getSecurityRealm().loadUserByUsername2(TEST_USER_USERNAME);
+        for (String group : TEST_USER_GROUPS) {
+            assertTrue(userDetails.getAuthorities().contains(new SimpleGrantedAuthority(group)));
+        }
+        assertEquals("group1", jenkins.getSecurityRealm().loadGroupByGroupname2("group1", false).getName());
+        assertThrows(
+                UserMayOrMayNotExistException2.class, () -> jenkins.getSecurityRealm().loadUserByUsername2("other"));
+    }
+
     @Test
     void testLoginWithDefaultsUntrustedTLSFails() throws Exception {
         mockAuthorizationRedirectsToFinishLogin();
@@ -496,6 +517,41 @@ class PluginTest {
                 postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("grant_type=refresh_token")));
     }
 
+    @Test
+    void testRefreshToken_unchangedClaims() throws Exception {
+        mockAuthorizationRedirectsToFinishLogin();
+        configureWellKnown(null, null, "authorization_code", "refresh_token");
+        jenkins.setSecurityRealm(new TestRealm(wireMock, null, EMAIL_FIELD, GROUPS_FIELD, true));
+        mockTokenReturnsIdTokenWithGroup();
+        mockUserInfoWithTestGroups();
+        browseLoginPage();
+        assertTestUserIsMemberOfGroups(assertTestUser(), TEST_USER_GROUPS);
+        assertEquals(1, LoginListener.logins.get());
+
+        // refresh user with the same claims
+        expire();
+        webClient.goTo(jenkins.getSearchUrl());
+
+        wireMock.verify(
+                postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("grant_type=refresh_token")));
+        var user = assertTestUser();
+        assertTestUserIsMemberOfGroups(user, TEST_USER_GROUPS);
+        OicSecurityRealm realm = (OicSecurityRealm) jenkins.getSecurityRealm();
+        assertFalse(realm.isExpired(user.getProperty(OicCredentials.class)), "Credentials should be refreshed");
+        assertEquals(1, LoginListener.logins.get(), "Refresh should not be reported as a login");
+    }
+
+    @TestExtension("testRefreshToken_unchangedClaims")
+    public static class LoginListener extends SecurityListener {
+
+        static final AtomicInteger logins = new AtomicInteger();
+
+        @Override
+        protected void loggedIn(@NonNull String username) {
+            logins.incrementAndGet();
+        }
+    }
+
     private HttpResponse<String> getPageWithGet(String url) throws IOException, InterruptedException {
         // fix up the url, if needed
         if (url.startsWith("/")) {
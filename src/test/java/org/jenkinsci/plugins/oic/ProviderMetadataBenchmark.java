@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * {@link OicServerConfiguration#toProviderMetadata()}, which is called whenever the realm needs to know something
+ * about the provider, such as whether it supports refresh tokens, and serves the metadata built after the last change.
+ * Filtering out the algorithms that are not FIPS-140 compliant only does anything in FIPS mode, hence the variants
+ * run in a JVM with FIPS mode enabled.
+ */
+@JmhBenchmark
+public class ProviderMetadataBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        OicServerManualConfiguration configuration;
+
+        @Override
+        public void setup() throws Exception {
+            configuration = new OicServerManualConfiguration(
+                    "https://idp.example.com/", "https://idp.example.com/token", "https://idp.example.com/authorize");
+            configuration.setUserInfoServerUrl("https://idp.example.com/userinfo");
+            configuration.setJwksServerUrl("https://idp.example.com/jwks");
+            configuration.setEndSessionUrl("https://idp.example.com/logout");
+            configuration.setUseRefreshTokens(true);
+        }
+    }
+
+    @Benchmark
+    public OIDCProviderMetadata toProviderMetadata(JenkinsState state) {
+        return state.configuration.toProviderMetadata();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Djenkins.security.FIPS140.COMPLIANCE=true")
+    public OIDCProviderMetadata toProviderMetadataInFipsMode(JenkinsState state) {
+        return state.configuration.toProviderMetadata();
+    }
+
+    /**
+     * Building the metadata from scratch, as happens after the configuration changed.
+     */
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Djenkins.security.FIPS140.COMPLIANCE=true")
+    public OIDCProviderMetadata toProviderMetadataInternalInFipsMode(JenkinsState state) {
+        return state.configuration.toProviderMetadataInternal();
+    }
+}
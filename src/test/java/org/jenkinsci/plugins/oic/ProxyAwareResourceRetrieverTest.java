@@ -1,18 +1,38 @@
 package org.jenkinsci.plugins.oic;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
 import hudson.ProxyConfiguration;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.UnknownHostException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 @WithJenkins
 class ProxyAwareResourceRetrieverTest {
 
+    @RegisterExtension
+    static WireMockExtension wireMock = WireMockExtension.newInstance()
+            .failOnUnmatchedRequests(true)
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
     @Test
     void testOpenConnection_WithoutProxy(JenkinsRule r) throws Exception {
         r.jenkins.setProxy(null);
@@ -42,4 +62,45 @@ class ProxyAwareResourceRetrieverTest {
         HttpURLConnection conn = retreiver.openHTTPConnection(r.getURL());
         assertNotNull(conn.getContent());
     }
+
+    @Test
+    void testRetrieveCacheableResource_revalidatesWithETag(JenkinsRule r) throws Exception {
+        r.jenkins.setProxy(null);
+        wireMock.stubFor(get(urlPathEqualTo("/jwks"))
+                .withHeader("If-None-Match", absent())
+                .willReturn(aResponse()
+                        .withHeader("ETag", "\"v1\"")
+                        .withHeader("Cache-Control", "max-age=600")
+                        .withBody("{\"keys\":[]}")));
+        wireMock.stubFor(get(urlPathEqualTo("/jwks"))
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304).withHeader("Cache-Control", "max-age=600")));
+
+        ProxyAwareResourceRetriever retriever = ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false);
+        URL url = new URL(wireMock.url("/jwks"));
+        CacheableResource first = retriever.retrieveCacheableResource(url, IdpEndpoint.JWKS);
+        assertTrue(first.modified());
+        assertEquals("{\"keys\":[]}", first.resource().getContent());
+        assertNotNull(first.expires());
+
+        CacheableResource second = retriever.retrieveCacheableResource(url, IdpEndpoint.JWKS);
+        assertFalse(second.modified());
+        assertSame(first.resource(), second.resource());
+        assertSame(first.resource(), retriever.retrieveResource(url));
+    }
+
+    @Test
+    void testRetrieveCacheableResource_acceptsCompressedResponses(JenkinsRule r) throws Exception {
+        r.jenkins.setProxy(null);
+        String body = "{\"keys\":[" + "{\"kty\":\"oct\"},".repeat(100) + "{\"kty\":\"oct\"}]}";
+        wireMock.stubFor(get(urlPathEqualTo("/jwks"))
+                .withHeader("Accept-Encoding", containing("gzip"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(body)));
+
+        ProxyAwareResourceRetriever retriever = ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false);
+        CacheableResource resource =
+                retriever.retrieveCacheableResource(new URL(wireMock.url("/jwks")), IdpEndpoint.JWKS);
+        assertEquals(body, resource.resource().getContent());
+        assertEquals("application/json", resource.resource().getContentType());
+    }
 }
@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.oic;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import hudson.model.User;
+import hudson.security.SecurityRealm;
+import hudson.util.Secret;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import jenkins.security.ApiTokenProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * The check made by {@link OicSecurityRealm#handleTokenExpiration} on every request of a logged in user.
+ */
+@JmhBenchmark
+public class TokenExpirationBenchmark {
+
+    private static final long ONE_HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        private WireMockServer provider;
+
+        OicSecurityRealm realm;
+
+        /** A user whose credentials are valid. */
+        Authentication loggedIn;
+
+        /** A user whose credentials expired and are refreshed with the token endpoint. */
+        Authentication expired;
+
+        /** A user without a session, calling Jenkins with an API token. */
+        Authentication apiTokenUser;
+
+        HttpServletRequest pageRequest;
+
+        HttpServletRequest apiTokenRequest;
+
+        HttpServletResponse response;
+
+        @Override
+        public void setup() throws Exception {
+            provider = new WireMockServer(wireMockConfig().dynamicPort());
+            provider.start();
+            long now = System.currentTimeMillis();
+            String idToken = new PlainJWT(new JWTClaimsSet.Builder()
+                            .subject("expired")
+                            .issuer(TestRealm.ISSUER)
+                            .audience(TestRealm.CLIENT_ID)
+                            .issueTime(new Date(now))
+                            .expirationTime(new Date(now + ONE_HOUR_MILLIS))
+                            .claim("groups", List.of("developers", "operators"))
+                            .build())
+                    .serialize();
+            provider.stubFor(post(urlPathEqualTo("/token"))
+                    .willReturn(okJson("{\"access_token\":\"access\",\"token_type\":\"Bearer\",\"expires_in\":3600,"
+                            + "\"refresh_token\":\"refresh\",\"id_token\":\"" + idToken + "\"}")));
+
+            realm = new TestRealm.Builder(provider.baseUrl() + "/") {
+                @Override
+                public OicServerConfiguration buildServerConfiguration() {
+                    OicServerManualConfiguration conf = (OicServerManualConfiguration) super.buildServerConfiguration();
+                    conf.setUseRefreshTokens(true);
+                    return conf;
+                }
+            }.WithGroupsFieldName("groups").build();
+            realm.setAllowTokenAccessWithoutOicSession(true);
+            Jenkins.get().setSecurityRealm(realm);
+
+            User.getById("loggedIn", true).addProperty(new OicCredentials(null, null, null, now + ONE_HOUR_MILLIS));
+            loggedIn = authentication("loggedIn");
+            User.getById("expired", true);
+            expired = authentication("expired");
+            User user = User.getById("apiToken", true);
+            user.addProperty(new OicCredentials(null, null, null, now - ONE_HOUR_MILLIS));
+            String token = user.getProperty(ApiTokenProperty.class).generateNewToken("benchmark").plainValue;
+            apiTokenUser = authentication("apiToken");
+
+            pageRequest = new MockHttpServletRequest() {
+                @Override
+                public String getRequestURI() {
+                    return "/job/example/";
+                }
+            };
+            String authorization = "Basic "
+                    + Base64.getEncoder().encodeToString(("apiToken:" + token).getBytes(StandardCharsets.UTF_8));
+            apiTokenRequest = new MockHttpServletRequest() {
+                @Override
+                public String getRequestURI() {
+                    return "/job/example/api/json";
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return "Authorization".equals(name) ? authorization : null;
+                }
+            };
+            response = mock(HttpServletResponse.class, withSettings().stubOnly());
+        }
+
+        @Override
+        public void tearDown() {
+            provider.stop();
+        }
+
+        /**
+         * Make the credentials of the user with expired credentials expired again.
+         */
+        void expire() throws Exception {
+            User.getById("expired", false)
+                    .addProperty(new OicCredentials(
+                            Secret.fromString("access"),
+                            null,
+                            Secret.fromString("refresh"),
+                            System.currentTimeMillis() - ONE_HOUR_MILLIS));
+        }
+
+        private static Authentication authentication(String userId) {
+            return new UsernamePasswordAuthenticationToken(userId, "", List.of(SecurityRealm.AUTHENTICATED_AUTHORITY2));
+        }
+    }
+
+    /**
+     * The refresh replaces the expired credentials, which have to be put back before each call.
+     */
+    @State(Scope.Thread)
+    public static class ExpiredState {
+
+        HttpServletRequest request;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // the refresh goes through the pac4j web context, which needs more of the request than the other cases
+            request = mock(HttpServletRequest.class, withSettings().stubOnly());
+            when(request.getRequestURI()).thenReturn("/job/example/");
+            when(request.getContextPath()).thenReturn("");
+        }
+
+        @Setup(Level.Invocation)
+        public void expire(JenkinsState state) throws Exception {
+            state.expire();
+        }
+    }
+
+    @Benchmark
+    public boolean notExpired(JenkinsState state) throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(state.loggedIn);
+        return state.realm.handleTokenExpiration(state.pageRequest, state.response);
+    }
+
+    @Benchmark
+    public boolean expiredWithRefresh(JenkinsState state, ExpiredState expiredState) throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(state.expired);
+        return state.realm.handleTokenExpiration(expiredState.request, state.response);
+    }
+
+    @Benchmark
+    public boolean apiToken(JenkinsState state) throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(state.apiTokenUser);
+        return state.realm.handleTokenExpiration(state.apiTokenRequest, state.response);
+    }
+}
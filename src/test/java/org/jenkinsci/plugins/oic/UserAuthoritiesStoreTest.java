@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.User;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+@WithJenkins
+class UserAuthoritiesStoreTest {
+
+    @Test
+    void groupsAreKnownWhileAUserHoldsThem(JenkinsRule jenkinsRule) {
+        UserAuthoritiesStore store = UserAuthoritiesStore.get();
+        store.put("alice", List.of(new SimpleGrantedAuthority("admins"), new SimpleGrantedAuthority("devs")), 1000L);
+        store.put("bob", List.of(new SimpleGrantedAuthority("devs")), 1000L);
+        assertTrue(store.isKnown("admins"));
+        assertTrue(store.isKnown("devs"));
+
+        store.put("alice", List.of(new SimpleGrantedAuthority("devs")), 2000L);
+        assertFalse(store.isKnown("admins"));
+        assertTrue(store.isKnown("devs"));
+
+        store.remove("ALICE");
+        assertTrue(store.isKnown("devs"));
+        store.remove("bob");
+        assertFalse(store.isKnown("devs"));
+    }
+
+    @Test
+    void expiredAuthoritiesArePruned(JenkinsRule jenkinsRule) {
+        UserAuthoritiesStore store = UserAuthoritiesStore.get();
+        store.put("alice", List.of(new SimpleGrantedAuthority("admins")), 1000L);
+        store.put("bob", List.of(new SimpleGrantedAuthority("devs")), 5000L);
+
+        store.prune(6000L, 2000L);
+        assertNull(store.get("alice", 1000L, Long.MAX_VALUE));
+        assertFalse(store.isKnown("admins"));
+        assertNotNull(store.get("bob", 6000L, 2000L));
+        assertTrue(store.isKnown("devs"));
+    }
+
+    @Test
+    void deletedUsersAreForgotten(JenkinsRule jenkinsRule) throws Exception {
+        UserAuthoritiesStore store = UserAuthoritiesStore.get();
+        User user = User.getById("carol", true);
+        user.save();
+        store.put("carol", List.of(new SimpleGrantedAuthority("ops")), System.currentTimeMillis());
+
+        user.delete();
+        assertNull(store.get("carol", System.currentTimeMillis(), Long.MAX_VALUE));
+        assertFalse(store.isKnown("ops"));
+    }
+}
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.pac4j.core.exception.TechnicalException;
+
+class UserInfoRetrieverTest {
+
+    @Test
+    void claimsAreReusedByRefreshesUntilTheyExpire() throws Exception {
+        AtomicLong now = new AtomicLong(1_000);
+        AtomicInteger requests = new AtomicInteger();
+        UserInfoRetriever retriever = new UserInfoRetriever(60_000, now::get);
+        UserInfoRetriever.Request request = () -> {
+            requests.incrementAndGet();
+            return Map.of("sub", "alice", "email", "alice@example.com");
+        };
+
+        assertEquals("alice@example.com", retriever.retrieve("alice", false, request).get("email"));
+        assertEquals("alice@example.com", retriever.retrieve("alice", true, request).get("email"));
+        assertEquals(1, requests.get());
+
+        // a login always retrieves fresh claims
+        retriever.retrieve("alice", false, request);
+        assertEquals(2, requests.get());
+
+        now.addAndGet(60_000);
+        retriever.retrieve("alice", true, request);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void claimsAreNotReusedUnlessEnabled() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        UserInfoRetriever retriever = new UserInfoRetriever(0, () -> 1_000);
+        UserInfoRetriever.Request request = () -> {
+            requests.incrementAndGet();
+            return Map.of("sub", "alice");
+        };
+
+        retriever.retrieve("alice", true, request);
+        retriever.retrieve("alice", true, request);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void claimsOfAnotherSubjectAreRejected() throws Exception {
+        UserInfoRetriever retriever = new UserInfoRetriever(60_000, () -> 1_000);
+
+        assertThrows(
+                TechnicalException.class, () -> retriever.retrieve("alice", false, () -> Map.of("sub", "mallory")));
+        assertNull(retriever.retrieve("alice", true, () -> null));
+    }
+}
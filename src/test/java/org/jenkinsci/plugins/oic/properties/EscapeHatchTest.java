@@ -74,4 +74,13 @@ class EscapeHatchTest {
         assertEquals(escapeHatchUsername, escapeHatch.getUsername());
         assertEquals(escapeHatchCryptedPassword, Secret.toString(escapeHatch.getSecret()));
     }
+
+    @Test
+    void testUnknownUsersAreCheckedAgainstAHashOfTheSameCost() {
+        String hash = BCrypt.hashpw("aSecretPassword", BCrypt.gensalt(5));
+        String unknownUserHash = EscapeHatch.unknownUserHash(hash);
+        assertNotEquals(hash, unknownUserHash);
+        assertEquals(hash.substring(0, 7), unknownUserHash.substring(0, 7));
+        assertEquals(unknownUserHash, EscapeHatch.unknownUserHash(BCrypt.hashpw("other", BCrypt.gensalt(5))));
+    }
 }
@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.oic.properties;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class LoginThrottleTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void excessAttemptsAreRejectedUntilTokensAreGivenBack() {
+        LoginThrottle throttle = new LoginThrottle(3, 10, now::get);
+        assertTrue(throttle.tryAcquire("alice"));
+        assertTrue(throttle.tryAcquire("alice"));
+        assertTrue(throttle.tryAcquire("alice"));
+        assertFalse(throttle.tryAcquire("alice"));
+        assertTrue(throttle.tryAcquire("bob"));
+
+        now.addAndGet(19_999);
+        assertFalse(throttle.tryAcquire("alice"));
+        now.addAndGet(1);
+        assertTrue(throttle.tryAcquire("alice"));
+        assertFalse(throttle.tryAcquire("alice"));
+    }
+
+    @Test
+    void keysBeyondTheTableShareABucket() {
+        LoginThrottle throttle = new LoginThrottle(1, 2, now::get);
+        assertTrue(throttle.tryAcquire("first"));
+        assertTrue(throttle.tryAcquire("second"));
+        assertTrue(throttle.tryAcquire("third"));
+        assertFalse(throttle.tryAcquire("fourth"));
+        assertFalse(throttle.tryAcquire("first"));
+
+        // full buckets make room for new keys
+        now.addAndGet(60_000);
+        assertTrue(throttle.tryAcquire("fourth"));
+        assertTrue(throttle.tryAcquire("fifth"));
+    }
+}